@@ -0,0 +1,147 @@
+package edu.nyu.cs.cs2580;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Per block ceilings of the lists in corpus.list: for every skip block of
+ * every term, the largest frequency of the term in a document of the block
+ * and the smallest length of those documents. Together they bound tf / length
+ * over a whole block, so a ranker can pass over blocks that can not hold a
+ * result without decoding them.
+ *
+ * Blocks are cut exactly as {@link SkipListPostingIterator#writeList} cuts
+ * them, both take them from {@link TermPostings}. On disk, as big-endian ints:
+ *
+ * <pre>
+ * int terms
+ * int first block of each term, terms + 1 entries
+ * int max frequency of each block
+ * int min length of each block
+ * </pre>
+ */
+class BlockBounds {
+  private int[] _firstBlock;
+  private int[] _maxFrequency;
+  private int[] _minLength;
+  private int _terms = 0;
+  private int _blocks = 0;
+
+  public BlockBounds(int terms) {
+    _firstBlock = new int[Math.max(terms, 1) + 1];
+    _maxFrequency = new int[16];
+    _minLength = new int[16];
+  }
+
+  /**
+   * Appends the blocks of the next term id from its decoded postings, lengths
+   * holds the length of each docid.
+   */
+  public void add(TermPostings postings, int[] lengths) {
+    int document = 0;
+    for (int block = 0; block < postings.blocks(); block++) {
+      int maxFrequency = 0;
+      int minLength = Integer.MAX_VALUE;
+      for (; document < postings.blockEnd(block); document++) {
+        maxFrequency = Math.max(maxFrequency, postings.frequency(document));
+        minLength = Math.min(minLength, lengths[postings.docid(document)]);
+      }
+      addBlock(maxFrequency, minLength);
+    }
+    endTerm();
+  }
+
+  // Appends the terms of other, in order.
+  public void addAll(BlockBounds other) {
+    for (int i = 0; i < other._terms; i++) {
+      for (int k = other._firstBlock[i]; k < other._firstBlock[i + 1]; k++) {
+        addBlock(other._maxFrequency[k], other._minLength[k]);
+      }
+      endTerm();
+    }
+  }
+
+  private void addBlock(int maxFrequency, int minLength) {
+    if (_blocks == _maxFrequency.length) {
+      _maxFrequency = Arrays.copyOf(_maxFrequency, _blocks * 2);
+      _minLength = Arrays.copyOf(_minLength, _blocks * 2);
+    }
+    _maxFrequency[_blocks] = maxFrequency;
+    _minLength[_blocks] = minLength;
+    _blocks++;
+  }
+
+  private void endTerm() {
+    if (_terms + 1 == _firstBlock.length) {
+      _firstBlock = Arrays.copyOf(_firstBlock, _firstBlock.length * 2);
+    }
+    _terms++;
+    _firstBlock[_terms] = _blocks;
+  }
+
+  public int size() {
+    return _terms;
+  }
+
+  public int blocks(int termId) {
+    return _firstBlock[termId + 1] - _firstBlock[termId];
+  }
+
+  public int maxFrequency(int termId, int block) {
+    return _maxFrequency[_firstBlock[termId] + block];
+  }
+
+  public int minLength(int termId, int block) {
+    return _minLength[_firstBlock[termId] + block];
+  }
+
+  public void write(String fileName) throws IOException {
+    DataOutputStream writer = new DataOutputStream(new BufferedOutputStream(
+        new FileOutputStream(fileName)));
+    writer.writeInt(_terms);
+    for (int i = 0; i <= _terms; i++) {
+      writer.writeInt(_firstBlock[i]);
+    }
+    for (int[] column : new int[][] { _maxFrequency, _minLength }) {
+      for (int i = 0; i < _blocks; i++) {
+        writer.writeInt(column[i]);
+      }
+    }
+    writer.close();
+  }
+
+  public static BlockBounds load(String fileName) throws IOException {
+    FileInputStream input = new FileInputStream(fileName);
+    try {
+      FileChannel channel = input.getChannel();
+      ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+      while (buffer.hasRemaining()) {
+        if (channel.read(buffer) < 0) {
+          throw new IOException("Truncated block bounds: " + fileName);
+        }
+      }
+      buffer.flip();
+      IntBuffer ints = buffer.asIntBuffer();
+      int terms = ints.get();
+      BlockBounds bounds = new BlockBounds(terms);
+      ints.get(bounds._firstBlock, 0, terms + 1);
+      int blocks = bounds._firstBlock[terms];
+      bounds._maxFrequency = new int[blocks];
+      bounds._minLength = new int[blocks];
+      ints.get(bounds._maxFrequency, 0, blocks);
+      ints.get(bounds._minLength, 0, blocks);
+      bounds._terms = terms;
+      bounds._blocks = blocks;
+      return bounds;
+    } finally {
+      input.close();
+    }
+  }
+}
@@ -1,9 +1,12 @@
 package edu.nyu.cs.cs2580;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -42,8 +45,20 @@ public abstract class CorpusAnalyzer {
 
     // Constructs the extractor based on the content of the provided file.
     public HeuristicLinkExtractor(File file) throws IOException {
-      _linkSource = file.getName();
-      _reader = new BufferedReader(new FileReader(file));
+      this(file.getName(), new FileReader(file));
+    }
+
+    // Constructs the extractor based on a document read from a
+    // DocumentSource.
+    public HeuristicLinkExtractor(String name, byte[] content)
+        throws IOException {
+      this(name, new InputStreamReader(new ByteArrayInputStream(content)));
+    }
+
+    private HeuristicLinkExtractor(String name, Reader reader)
+        throws IOException {
+      _linkSource = name;
+      _reader = new BufferedReader(reader);
       String line = _reader.readLine();
       if (line != null) {
         _matcher = LINK_PATTERN.matcher(line);
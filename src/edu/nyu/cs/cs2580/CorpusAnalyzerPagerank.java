@@ -8,12 +8,15 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 
 import edu.nyu.cs.cs2580.SearchEngine.Options;
 
@@ -25,17 +28,19 @@ public class CorpusAnalyzerPagerank extends CorpusAnalyzer {
     super(options);
   }
 
-  private static final float LAMBDA = 0.1f;
-  private static final int ITERATION = 2;
+  private static final double LAMBDA = 0.1;
 
-  private Map<Integer, Set<Integer>> corpusGraph;
-  private Map<Integer, String> docidMap;
 
   private final String graphFile = _options._miningPrefix + "/pageRankGraph";
   private final String structureFile = _options._miningPrefix
       + "/pageRankGraphStructure";
   private final String pageRankFile = _options._miningPrefix
       + "/pageRankResult";
+  private final String linksFile = _options._miningPrefix + "/pageRankLinks";
+
+  // Names and pending link targets between startGraph() and finishGraph().
+  private List<String> _names;
+  private DataOutputStream _links;
 
   /**
    * This function processes the corpus as specified inside {@link _options} and
@@ -58,77 +63,182 @@ public class CorpusAnalyzerPagerank extends CorpusAnalyzer {
    */
   @Override
   public void prepare() throws IOException {
-    deleteExistingFiles();
+    startGraph();
     System.out.println("Preparing " + this.getClass().getName());
+    for (String prefix : new String[] { _options._corpusPrefix,
+        _options._stackOverFlowPrefix }) {
+      DocumentSource source = DocumentSource.open(prefix);
+      try {
+        while (source.next()) {
+          addDocument(source.name(), source.content());
+        }
+      } finally {
+        source.close();
+      }
+    }
+    finishGraph();
+  }
+
+  /**
+   * Starts a graph fed by {@link #addDocument} in corpus order and written
+   * out by {@link #finishGraph}. Links may point forward, so the targets of
+   * each page wait in a side file until all names are known; this lets the
+   * corpus be read once, here or by --mode=build.
+   *
+   * The side file is kept: one record per page, its number of targets (-1
+   * ends the file), its name and the targets. {@link #update} rebuilds the
+   * graph from it without reading the pages that did not change.
+   */
+  void startGraph() throws IOException {
+    deleteExistingFiles();
+    _names = new ArrayList<String>();
+    _links = new DataOutputStream(new BufferedOutputStream(
+        new FileOutputStream(linksFile)));
+  }
+
+  void addDocument(String name, byte[] content) throws IOException {
+    _names.add(name);
+    writeLinks(name, content);
+  }
+
+  private void writeLinks(String name, byte[] content) throws IOException {
+    List<String> targets = new ArrayList<String>();
+    HeuristicLinkExtractor extractor = new HeuristicLinkExtractor(name,
+        content);
+    String link = extractor.getNextInCorpusLinkTarget();
+    while (link != null) {
+      targets.add(link);
+      link = extractor.getNextInCorpusLinkTarget();
+    }
+    _links.writeInt(targets.size());
+    _links.writeUTF(name);
+    for (String target : targets) {
+      _links.writeUTF(target);
+    }
+  }
+
+  /**
+   * Brings the graph of an earlier mining run up to date once the documents
+   * named in changed were added, modified or removed. Only those documents
+   * are read and have their links extracted again, the links of every other
+   * page come from the side file of the last run. The graph is then resolved
+   * as by {@link #prepare}, so it comes out as a full run would make it, and
+   * {@link #compute} starts from the previous ranks.
+   */
+  public void update(Set<String> changed) throws IOException {
+    System.out.println("Updating " + this.getClass().getName() + " for "
+        + changed.size() + " changed documents");
+    File previous = new File(linksFile + ".previous");
+    previous.delete();
+    if (!new File(linksFile).renameTo(previous)) {
+      throw new IOException("No PageRank graph to update, run mining first");
+    }
+    _names = new ArrayList<String>();
+    _links = new DataOutputStream(new BufferedOutputStream(
+        new FileOutputStream(linksFile)));
+    for (String prefix : new String[] { _options._corpusPrefix,
+        _options._stackOverFlowPrefix }) {
+      DocumentSource source = DocumentSource.open(prefix);
+      try {
+        while (source.next()) {
+          _names.add(source.name());
+          if (changed.contains(source.name())) {
+            writeLinks(source.name(), source.content());
+          }
+        }
+      } finally {
+        source.close();
+      }
+    }
+    // unchanged pages still in the corpus keep their links
+    Set<String> names = new HashSet<String>(_names);
+    DataInputStream links = new DataInputStream(new BufferedInputStream(
+        new FileInputStream(previous)));
+    try {
+      int count;
+      while ((count = links.readInt()) >= 0) {
+        String name = links.readUTF();
+        boolean keep = names.contains(name) && !changed.contains(name);
+        if (keep) {
+          _links.writeInt(count);
+          _links.writeUTF(name);
+        }
+        for (int i = 0; i < count; i++) {
+          String target = links.readUTF();
+          if (keep) {
+            _links.writeUTF(target);
+          }
+        }
+      }
+    } finally {
+      links.close();
+    }
+    previous.delete();
+    finishGraph();
+  }
+
+  void finishGraph() throws IOException {
+    _links.writeInt(-1);
+    _links.close();
+    _links = null;
     Map<String, Integer> _documentUrls = new HashMap<String, Integer>();
-    corpusGraph = new HashMap<Integer, Set<Integer>>();
+    Map<Integer, Set<Integer>> corpusGraph =
+        new HashMap<Integer, Set<Integer>>();
     Map<Integer, Integer> redirects = new HashMap<Integer, Integer>();
     int docid = 0;
-    File corpusDirectory = new File(_options._corpusPrefix);
-    File stackOverFlowDir = new File(_options._stackOverFlowPrefix);
-    if (corpusDirectory.isDirectory() && stackOverFlowDir.isDirectory()) {
-      File[] corpusFiles = corpusDirectory.listFiles();
-      File[] stackFiles = stackOverFlowDir.listFiles();
-      File[] allFiles = new File[(corpusFiles.length + stackFiles.length)];
-      System.arraycopy(corpusFiles, 0, allFiles, 0, corpusFiles.length);
-      System.arraycopy(stackFiles, 0, allFiles, corpusFiles.length, stackFiles.length);
-      for (File file : allFiles) {
-        _documentUrls.put(file.getName(), docid);
-        docid++;
+    for (String name : _names) {
+      _documentUrls.put(name, docid);
+      docid++;
+    }
+    for (String name : _names) {
+      if (_documentUrls.containsKey(name + ".html")) {
+        redirects.put(_documentUrls.get(name),
+            _documentUrls.get(name + ".html"));
       }
-      for (File file : allFiles) {
-        if (_documentUrls.containsKey(file.getName() + ".html")) {
-          redirects.put(_documentUrls.get(file.getName()),
-              _documentUrls.get(file.getName() + ".html"));
+    }
+    DataInputStream links = new DataInputStream(new BufferedInputStream(
+        new FileInputStream(linksFile)));
+    try {
+      int count;
+      while ((count = links.readInt()) >= 0) {
+        String name = links.readUTF();
+        if (redirects.containsKey(_documentUrls.get(name))) {
+          for (int i = 0; i < count; i++) {
+            links.readUTF();
+          }
+          continue;
         }
-      }
-      for (File file : allFiles) {
         Set<Integer> linkSet = new HashSet<Integer>();
-        if (isValidDocument(file)
-            && !redirects.containsKey(_documentUrls.get(file.getName()))) {
-          HeuristicLinkExtractor extractor = new HeuristicLinkExtractor(file);
-          String link = extractor.getNextInCorpusLinkTarget();
-          while (link != null) {
-            if (_documentUrls.containsKey(link)) {
-              int linkDocid = _documentUrls.get(link);
-              if (redirects.containsKey(linkDocid)) {
-                linkDocid = redirects.get(linkDocid);
-              }
-
-              if (!linkSet.contains(linkDocid)) {
-                linkSet.add(linkDocid);
-              }
+        for (int i = 0; i < count; i++) {
+          String link = links.readUTF();
+          if (_documentUrls.containsKey(link)) {
+            int linkDocid = _documentUrls.get(link);
+            if (redirects.containsKey(linkDocid)) {
+              linkDocid = redirects.get(linkDocid);
+            }
+
+            if (!linkSet.contains(linkDocid)) {
+              linkSet.add(linkDocid);
             }
-            link = extractor.getNextInCorpusLinkTarget();
           }
-          corpusGraph.put(_documentUrls.get(file.getName()), linkSet);
-        }
-      }
-     
-      DataOutputStream writer = new DataOutputStream(new BufferedOutputStream(
-          new FileOutputStream(graphFile)));
-      writer.writeInt(corpusGraph.size());
-      for (Integer key : corpusGraph.keySet()) {
-        writer.writeInt(key);
-        Set<Integer> list = corpusGraph.get(key);
-        writer.writeInt(list.size());
-        for (Integer str : list) {
-          writer.writeInt(str);
-        }
-      }
-      writer.close();
-      docidMap = new HashMap<Integer, String>();
-      for (String key : _documentUrls.keySet()) {
-        int id = _documentUrls.get(key);
-        if (!redirects.containsKey(id)) {
-          docidMap.put(id, key);
         }
+        corpusGraph.put(_documentUrls.get(name), linkSet);
       }
-      ObjectOutputStream os = new ObjectOutputStream(new BufferedOutputStream(
-          new FileOutputStream(structureFile)));
-      os.writeObject(docidMap);
-      os.close();
+    } finally {
+      links.close();
     }
+
+    LinkGraph graph = LinkGraph.fromMap(corpusGraph);
+    MappedLinkGraph.write(graph, graphFile);
+    DataOutputStream writer = new DataOutputStream(new BufferedOutputStream(
+        new FileOutputStream(structureFile)));
+    writer.writeInt(graph.size());
+    for (int i = 0; i < graph.size(); i++) {
+      // docids number the names in corpus order
+      writer.writeUTF(_names.get(graph.docid(i)));
+    }
+    writer.close();
+    _names = null;
     return;
   }
 
@@ -157,69 +267,144 @@ public class CorpusAnalyzerPagerank extends CorpusAnalyzer {
    *
    * @throws IOException
    */
-  @SuppressWarnings("unchecked")
   @Override
   public void compute() throws IOException {
     System.out.println("Computing using " + this.getClass().getName());
-    if (corpusGraph == null) {
-      DataInputStream reader = new DataInputStream(new BufferedInputStream(
-          new FileInputStream(graphFile)));
-      corpusGraph = new HashMap<Integer, Set<Integer>>();
-      int graphSize = reader.readInt();
-      for (int i = 0; i < graphSize; i++) {
-        int docid = reader.readInt();
-        Set<Integer> set = new HashSet<Integer>();
-        int setSize = reader.readInt();
-        for (int j = 0; j < setSize; j++) {
-          set.add(reader.readInt());
-        }
-        corpusGraph.put(docid, set);
+    MappedLinkGraph graph = new MappedLinkGraph(graphFile);
+    String[] names = new String[graph.size()];
+    DataInputStream reader = new DataInputStream(new BufferedInputStream(
+        new FileInputStream(structureFile)));
+    try {
+      if (reader.readInt() != names.length) {
+        throw new IOException("PageRank graph and names differ, rerun mining");
       }
-      reader.close();
-      ObjectInputStream is = new ObjectInputStream(new BufferedInputStream(
-          new FileInputStream(structureFile)));
-      try {
-        docidMap = (HashMap<Integer, String>) is.readObject();
-      } catch (ClassNotFoundException e) {
-        e.printStackTrace();
+      for (int i = 0; i < names.length; i++) {
+        names[i] = reader.readUTF();
       }
-      is.close();
-    }
-
-    Map<Integer, Float> pageRank = new HashMap<Integer, Float>();
-    Map<Integer, Float> tempPR = new HashMap<Integer, Float>();
-    for (Integer key : corpusGraph.keySet()) {
-      pageRank.put(key, 1.0f);
-      tempPR.put(key, 0.0f);
+    } finally {
+      reader.close();
     }
 
-    for (int iter = 0; iter < ITERATION; iter++) {
-      for (Integer id : pageRank.keySet()) {
-        Set<Integer> outlinks = corpusGraph.get(id);
-        for (Integer key : outlinks)
-          tempPR.put(key,
-              tempPR.get(key) + pageRank.get(id) / outlinks.size());
-      }
-      for (Integer key : tempPR.keySet()) {
-        pageRank.put(key,(1-LAMBDA) * tempPR.get(key) + LAMBDA);
-      }
-      for (Integer key : tempPR.keySet()) {
-        tempPR.put(key, 0.0f);
+    // start from the ranks of the last run, left in place by update()
+    double[] pageRank = new double[names.length];
+    Arrays.fill(pageRank, 1.0);
+    if (new File(pageRankFile).exists()) {
+      @SuppressWarnings("unchecked")
+      Map<String, Float> previous = (Map<String, Float>) load();
+      for (int i = 0; i < names.length; i++) {
+        if (previous.containsKey(names[i])) {
+          pageRank[i] = previous.get(names[i]);
+        }
       }
     }
-    
+    pageRank = rank(graph, pageRank, _options._pagerankTolerance,
+        _options._pagerankMaxIterations);
+
     DataOutputStream writer = new DataOutputStream(new BufferedOutputStream(
         new FileOutputStream(pageRankFile)));
-    writer.writeInt(pageRank.size());
-    for (Integer docid : pageRank.keySet()) {
-      writer.writeUTF(docidMap.get(docid));
-      writer.writeFloat(pageRank.get(docid));
+    writer.writeInt(graph.size());
+    for (int i = 0; i < graph.size(); i++) {
+      writer.writeUTF(names[i]);
+      writer.writeFloat((float) pageRank[i]);
     }
     writer.close();
     return;
 
   }
 
+  /**
+   * Power iteration over the graph from the ranks in start, on the fork-join
+   * pool. The ranks tend to sum to the number of nodes: a node gets LAMBDA
+   * plus 1 - LAMBDA of what its in-links pass on, and the rank of pages
+   * without links is spread over all nodes. Stops once the ranks move by
+   * less than tolerance on average, or after maxIterations.
+   */
+  static double[] rank(MappedLinkGraph graph, double[] start,
+      double tolerance, int maxIterations) {
+    int n = graph.size();
+    double[] rank = start;
+    double[] next = new double[n];
+    // share of its rank each node passes on to every link
+    double[] share = new double[n];
+    ForkJoinPool pool = new ForkJoinPool();
+    try {
+      for (int iter = 0; iter < maxIterations; iter++) {
+        double dangling = 0;
+        for (int i = 0; i < n; i++) {
+          int degree = graph.outDegree(i);
+          if (degree == 0) {
+            dangling += rank[i];
+            share[i] = 0;
+          } else {
+            share[i] = rank[i] / degree;
+          }
+        }
+        double base = LAMBDA + (1 - LAMBDA) * dangling / n;
+        double delta = pool.invoke(new RankStep(graph, share, rank, next,
+            base, 0, n));
+        double[] swap = rank;
+        rank = next;
+        next = swap;
+        if (delta / n < tolerance) {
+          System.out.println("PageRank converged after " + (iter + 1)
+              + " iterations");
+          break;
+        }
+      }
+    } finally {
+      pool.shutdown();
+    }
+    return rank;
+  }
+
+  /**
+   * Computes the next rank of the nodes first to last - 1 from their
+   * in-links, splitting the range over the pool. Returns the sum of how much
+   * the ranks moved.
+   */
+  @SuppressWarnings("serial")
+  private static class RankStep extends RecursiveTask<Double> {
+    private static final int NODES_PER_TASK = 1 << 12;
+
+    private final MappedLinkGraph _graph;
+    private final double[] _share;
+    private final double[] _rank;
+    private final double[] _next;
+    private final double _base;
+    private final int _first;
+    private final int _last;
+
+    RankStep(MappedLinkGraph graph, double[] share, double[] rank,
+        double[] next, double base, int first, int last) {
+      _graph = graph;
+      _share = share;
+      _rank = rank;
+      _next = next;
+      _base = base;
+      _first = first;
+      _last = last;
+    }
+
+    @Override
+    protected Double compute() {
+      if (_last - _first > NODES_PER_TASK) {
+        int middle = (_first + _last) >>> 1;
+        RankStep left = new RankStep(_graph, _share, _rank, _next, _base,
+            _first, middle);
+        left.fork();
+        double right = new RankStep(_graph, _share, _rank, _next, _base,
+            middle, _last).compute();
+        return left.join() + right;
+      }
+      double delta = 0;
+      for (int i = _first; i < _last; i++) {
+        _next[i] = _base + (1 - LAMBDA) * _graph.sumInLinks(i, _share);
+        delta += Math.abs(_next[i] - _rank[i]);
+      }
+      return delta;
+    }
+  }
+
   /**
    * During indexing mode, this function loads the PageRank values computed
    * during mining mode to be used by the indexer.
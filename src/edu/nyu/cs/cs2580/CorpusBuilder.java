@@ -0,0 +1,62 @@
+package edu.nyu.cs.cs2580;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+
+import edu.nyu.cs.cs2580.SearchEngine.Options;
+
+/**
+ * --mode=build: mining and indexing from a single read of the corpus.
+ *
+ * Running --mode=mining then --mode=index reads the corpus three times: the
+ * PageRank graph, the numviews miner and the indexers each walk it. Here the
+ * main indexer reads every document once and hands it on to the PageRank
+ * graph, the registry of names for the numviews miner and the stack overflow
+ * indexer. Neither index needs the page ranks or numviews until it is written
+ * out, so they are computed once the corpus is read and the mining and index
+ * files come out the same as with the two modes.
+ */
+class CorpusBuilder implements CorpusScan {
+  private final Options _options;
+  private final CorpusAnalyzerPagerank _analyzer;
+  private final LogMinerNumviews _miner;
+  private final IndexerInvertedCompressed _indexer;
+  private final IndexerStackOverFlowCompressed _stackIndexer;
+  // names of all documents read, for the numviews miner
+  private final Set<String> _names = new HashSet<String>();
+
+  public CorpusBuilder(Options options, CorpusAnalyzerPagerank analyzer,
+      LogMinerNumviews miner, IndexerInvertedCompressed indexer,
+      IndexerStackOverFlowCompressed stackIndexer) {
+    _options = options;
+    _analyzer = analyzer;
+    _miner = miner;
+    _indexer = indexer;
+    _stackIndexer = stackIndexer;
+  }
+
+  public void build() throws IOException {
+    _analyzer.startGraph();
+    _stackIndexer.startIndex();
+    _indexer.constructIndex(this);
+  }
+
+  @Override
+  public void document(String prefix, String name, byte[] content)
+      throws IOException {
+    _names.add(name);
+    _analyzer.addDocument(name, content);
+    if (prefix.equals(_options._stackOverFlowPrefix)) {
+      _stackIndexer.addDocument(name, content);
+    }
+  }
+
+  @Override
+  public void finish() throws IOException {
+    _analyzer.finishGraph();
+    _analyzer.compute();
+    _miner.compute(_names);
+    _stackIndexer.finishIndex();
+  }
+}
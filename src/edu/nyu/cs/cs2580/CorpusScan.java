@@ -0,0 +1,20 @@
+package edu.nyu.cs.cs2580;
+
+import java.io.IOException;
+
+/**
+ * Receives every document the indexer reads, so the mining that would
+ * otherwise walk the corpus on its own can share that one read. Used by
+ * --mode=build, see {@link CorpusBuilder}.
+ */
+interface CorpusScan {
+  // A document of the source opened at prefix, in corpus order.
+  void document(String prefix, String name, byte[] content)
+      throws IOException;
+
+  /**
+   * All documents were read. The page ranks and numviews must be written by
+   * the time this returns, the indexer loads them next.
+   */
+  void finish() throws IOException;
+}
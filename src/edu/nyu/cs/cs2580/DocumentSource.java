@@ -0,0 +1,82 @@
+package edu.nyu.cs.cs2580;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * A sequence of raw corpus documents, read in a fixed order. The indexers,
+ * the PageRank graph builder and the numviews miner all walk the corpus
+ * through it, so none of them depends on how the corpus is stored.
+ *
+ * {@link #next} moves to the next document; {@link #name} is cheap, the
+ * content is only read when asked for, so passes that need names only do not
+ * pay for the bodies.
+ *
+ * See {@link #open} for the supported layouts.
+ */
+public abstract class DocumentSource {
+  // Name of the one file holding a whole corpus as tab separated lines.
+  public static final String TSV_NAME = "corpus.tsv";
+  // Compressed archives holding one entry per document.
+  public static final String ARCHIVE_SUFFIX = ".zip";
+
+  protected final String _prefix;
+
+  protected DocumentSource(String prefix) {
+    _prefix = prefix;
+  }
+
+  /**
+   * Opens the corpus at {@code prefix}, as set for corpus_prefix or
+   * stackoverflow_prefix:
+   * <ul>
+   * <li>a directory with a single corpus.tsv, one document per line;</li>
+   * <li>a .zip archive, one document per entry, read as a stream;</li>
+   * <li>any other directory, one document per file.</li>
+   * </ul>
+   */
+  public static DocumentSource open(String prefix) throws IOException {
+    File file = new File(prefix);
+    if (file.isDirectory()) {
+      String[] names = file.list();
+      if (names.length == 1 && names[0].equals(TSV_NAME)) {
+        return new DocumentSourceTsv(prefix);
+      }
+      return new DocumentSourceDirectory(prefix);
+    }
+    if (file.isFile() && prefix.endsWith(ARCHIVE_SUFFIX)) {
+      return new DocumentSourceArchive(prefix);
+    }
+    throw new IOException("Not a corpus directory or archive: " + prefix);
+  }
+
+  /**
+   * The corpus_prefix or stackoverflow_prefix this source was opened with,
+   * stored as the path prefix of its documents.
+   */
+  public String getPrefix() {
+    return _prefix;
+  }
+
+  /**
+   * Moves to the next document, false once the source is exhausted. Hidden
+   * files are never returned.
+   */
+  public abstract boolean next() throws IOException;
+
+  // File name of the current document, the title for corpus.tsv lines.
+  public abstract String name();
+
+  // Raw bytes of the current document.
+  public abstract byte[] content() throws IOException;
+
+  /**
+   * Whether {@link #content} is an HTML page. corpus.tsv documents are plain
+   * text and carry their title in {@link #name}.
+   */
+  public boolean isHtml() {
+    return true;
+  }
+
+  public abstract void close() throws IOException;
+}
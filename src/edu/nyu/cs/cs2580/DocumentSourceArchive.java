@@ -0,0 +1,67 @@
+package edu.nyu.cs.cs2580;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * A zip archive holding one document per entry, read front to back as a
+ * single stream: no directory listing and no open per document. Entries are
+ * returned in archive order under their file name, directories and hidden
+ * files are skipped.
+ */
+public class DocumentSourceArchive extends DocumentSource {
+  private static final int BUFFER_SIZE = 1 << 20;
+
+  private final ZipInputStream _input;
+  private final byte[] _buffer = new byte[BUFFER_SIZE];
+  private String _name = null;
+  private byte[] _content = null;
+
+  public DocumentSourceArchive(String prefix) throws IOException {
+    super(prefix);
+    _input = new ZipInputStream(new BufferedInputStream(new FileInputStream(
+        prefix), BUFFER_SIZE));
+  }
+
+  @Override
+  public boolean next() throws IOException {
+    ZipEntry entry;
+    do {
+      entry = _input.getNextEntry();
+      if (entry == null) {
+        return false;
+      }
+      _name = entry.getName().substring(entry.getName().lastIndexOf('/') + 1);
+    } while (entry.isDirectory() || _name.startsWith("."));
+    _content = null;
+    return true;
+  }
+
+  @Override
+  public String name() {
+    return _name;
+  }
+
+  // The entry is decompressed on the first call, a stream can not go back.
+  @Override
+  public byte[] content() throws IOException {
+    if (_content == null) {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      int read;
+      while ((read = _input.read(_buffer)) > 0) {
+        bytes.write(_buffer, 0, read);
+      }
+      _content = bytes.toByteArray();
+    }
+    return _content;
+  }
+
+  @Override
+  public void close() throws IOException {
+    _input.close();
+  }
+}
@@ -0,0 +1,51 @@
+package edu.nyu.cs.cs2580;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+/**
+ * One document per file of a directory, in the order the directory lists
+ * them.
+ */
+public class DocumentSourceDirectory extends DocumentSource {
+  private final File[] _files;
+  private int _index = -1;
+
+  public DocumentSourceDirectory(String prefix) {
+    super(prefix);
+    _files = new File(prefix).listFiles();
+  }
+
+  @Override
+  public boolean next() {
+    do {
+      _index++;
+    } while (_index < _files.length
+        && _files[_index].getName().startsWith("."));
+    return _index < _files.length;
+  }
+
+  @Override
+  public String name() {
+    return _files[_index].getName();
+  }
+
+  @Override
+  public byte[] content() throws IOException {
+    File file = _files[_index];
+    byte[] bytes = new byte[(int) file.length()];
+    DataInputStream input = new DataInputStream(new FileInputStream(file));
+    try {
+      input.readFully(bytes);
+    } finally {
+      input.close();
+    }
+    return bytes;
+  }
+
+  @Override
+  public void close() {
+  }
+}
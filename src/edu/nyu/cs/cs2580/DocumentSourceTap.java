@@ -0,0 +1,50 @@
+package edu.nyu.cs.cs2580;
+
+import java.io.IOException;
+
+/**
+ * Reads another source and hands every document to a {@link CorpusScan} as
+ * it is read, including those the reader goes on to skip. The content is
+ * read once and kept for the reader.
+ */
+class DocumentSourceTap extends DocumentSource {
+  private final DocumentSource _source;
+  private final CorpusScan _scan;
+  private byte[] _content = null;
+
+  public DocumentSourceTap(DocumentSource source, CorpusScan scan) {
+    super(source.getPrefix());
+    _source = source;
+    _scan = scan;
+  }
+
+  @Override
+  public boolean next() throws IOException {
+    if (!_source.next()) {
+      return false;
+    }
+    _content = _source.content();
+    _scan.document(_prefix, _source.name(), _content);
+    return true;
+  }
+
+  @Override
+  public String name() {
+    return _source.name();
+  }
+
+  @Override
+  public byte[] content() {
+    return _content;
+  }
+
+  @Override
+  public boolean isHtml() {
+    return _source.isHtml();
+  }
+
+  @Override
+  public void close() throws IOException {
+    _source.close();
+  }
+}
@@ -0,0 +1,61 @@
+package edu.nyu.cs.cs2580;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+
+/**
+ * The corpus.tsv layout: one document per line, the title and the body
+ * separated by a tab. The title doubles as the document name.
+ */
+public class DocumentSourceTsv extends DocumentSource {
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  private final BufferedReader _reader;
+  private String _title = null;
+  private String _body = null;
+
+  public DocumentSourceTsv(String prefix) throws IOException {
+    super(prefix);
+    _reader = new BufferedReader(new InputStreamReader(new FileInputStream(
+        prefix + "/" + TSV_NAME), UTF8), 1 << 20);
+  }
+
+  @Override
+  public boolean next() throws IOException {
+    String line = _reader.readLine();
+    if (line == null) {
+      return false;
+    }
+    int tab = line.indexOf('\t');
+    _title = tab < 0 ? line : line.substring(0, tab);
+    _body = tab < 0 ? "" : line.substring(tab + 1);
+    int end = _body.indexOf('\t');
+    if (end >= 0) {
+      _body = _body.substring(0, end);
+    }
+    return true;
+  }
+
+  @Override
+  public String name() {
+    return _title;
+  }
+
+  @Override
+  public byte[] content() {
+    return _body.getBytes(UTF8);
+  }
+
+  @Override
+  public boolean isHtml() {
+    return false;
+  }
+
+  @Override
+  public void close() throws IOException {
+    _reader.close();
+  }
+}
@@ -0,0 +1,151 @@
+package edu.nyu.cs.cs2580;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * The hot tier of an index: every posting list cut down to a small set of
+ * documents with the best page rank and numviews. Read whole into the heap
+ * at serve time, so queries whose results all come from it never touch the
+ * lists on disk.
+ *
+ * The file corpus.tier holds, all big-endian:
+ *
+ * <pre>
+ * int documents, int docid per document, ascending
+ * int terms
+ * per term id: float largest frequency / length of the term in a document
+ *              outside the tier, rounded up, then its list as in
+ *              corpus.list: int length, then the list
+ * </pre>
+ *
+ * The lists are in the layout of {@link SkipListPostingIterator}. The ratios
+ * bound what the documents left out of the tier can score, see
+ * {@link TermBounds}.
+ */
+class HotTier {
+  private final BitSet _documents;
+  // the lists, and where the list of each term id starts in it
+  private final ByteBuffer _lists;
+  private final int[] _offsets;
+  private final float[] _maxRatioOutside;
+
+  // A tier being built, of the given documents.
+  public HotTier(BitSet documents) {
+    _documents = documents;
+    _lists = null;
+    _offsets = null;
+    _maxRatioOutside = null;
+  }
+
+  private HotTier(BitSet documents, ByteBuffer lists, int[] offsets,
+      float[] maxRatioOutside) {
+    _documents = documents;
+    _lists = lists;
+    _offsets = offsets;
+    _maxRatioOutside = maxRatioOutside;
+  }
+
+  public boolean contains(int docid) {
+    return _documents.get(docid);
+  }
+
+  public int size() {
+    return _documents.cardinality();
+  }
+
+  /**
+   * Writes to lists the entry of a term from its decoded postings, keeping
+   * the documents of the tier; lengths holds the length of each docid. Safe
+   * to call from several threads on different streams.
+   */
+  public void writeList(TermPostings postings, int[] lengths,
+      DataOutputStream lists) throws IOException {
+    double maxRatio = 0;
+    for (int i = 0; i < postings.documents(); i++) {
+      int docid = postings.docid(i);
+      if (!_documents.get(docid)) {
+        maxRatio = Math.max(maxRatio,
+            (double) postings.frequency(i) / lengths[docid]);
+      }
+    }
+    TermPostings kept = new TermPostings();
+    postings.keep(_documents, kept);
+    lists.writeFloat(TermBounds.roundUp(maxRatio));
+    SkipListPostingIterator.writeList(lists, kept);
+  }
+
+  /**
+   * Writes the file, ranges holding the lists written by
+   * {@link #writeList} for consecutive ranges of term ids, in order.
+   */
+  public void write(String fileName, int terms,
+      List<ByteArrayOutputStream> ranges) throws IOException {
+    DataOutputStream writer = new DataOutputStream(new BufferedOutputStream(
+        new FileOutputStream(fileName)));
+    try {
+      writer.writeInt(_documents.cardinality());
+      for (int docid = _documents.nextSetBit(0); docid >= 0;
+          docid = _documents.nextSetBit(docid + 1)) {
+        writer.writeInt(docid);
+      }
+      writer.writeInt(terms);
+      for (ByteArrayOutputStream range : ranges) {
+        range.writeTo(writer);
+      }
+    } finally {
+      writer.close();
+    }
+  }
+
+  public static HotTier load(String fileName) throws IOException {
+    FileInputStream input = new FileInputStream(fileName);
+    try {
+      FileChannel channel = input.getChannel();
+      ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+      while (buffer.hasRemaining()) {
+        if (channel.read(buffer) < 0) {
+          throw new IOException("Truncated hot tier: " + fileName);
+        }
+      }
+      buffer.flip();
+      BitSet documents = new BitSet();
+      int size = buffer.getInt();
+      for (int i = 0; i < size; i++) {
+        documents.set(buffer.getInt());
+      }
+      int[] offsets = new int[buffer.getInt()];
+      float[] maxRatioOutside = new float[offsets.length];
+      for (int i = 0; i < offsets.length; i++) {
+        maxRatioOutside[i] = buffer.getFloat();
+        offsets[i] = buffer.position();
+        buffer.position(buffer.position() + 4 + buffer.getInt());
+      }
+      return new HotTier(documents, buffer, offsets, maxRatioOutside);
+    } finally {
+      input.close();
+    }
+  }
+
+  // Largest frequency / length of termId in a document outside the tier.
+  public float maxRatioOutside(int termId) {
+    return _maxRatioOutside[termId];
+  }
+
+  // Iterator over the tier list of termId.
+  public PostingIterator iterator(int termId) {
+    ByteBuffer list = _lists.duplicate();
+    int offset = _offsets[termId];
+    list.position(offset + 4);
+    list.limit(offset + 4 + _lists.getInt(offset));
+    return new SkipListPostingIterator(list.slice());
+  }
+}
@@ -0,0 +1,276 @@
+package edu.nyu.cs.cs2580;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Binary replacement for the serialized indexer object: the documents, the
+ * term list and the doc term offsets of an inverted index.
+ *
+ * The file starts with a fixed header followed by four sections, all numbers
+ * big-endian:
+ *
+ * <pre>
+ * int  magic, int version, int document kind
+ * int  documents, int terms, int strings
+ * long total term frequency
+ * long offset of each section below
+ *
+ * string offsets   int[strings + 1], into the string data
+ * string data      UTF-8 bytes, terms first so term id == string id
+ * doc term offsets int[documents]
+ * documents        documents fixed-width records of RECORD_INTS ints:
+ *                  title, url, name, prefix (string ids), page rank (float
+ *                  bits), numviews, length, vote
+ * </pre>
+ *
+ * Loading is a handful of bulk reads into primitive arrays. Documents are
+ * materialized by {@link #getDoc(int)} when asked for, instead of keeping one
+ * object per document on the heap.
+ */
+public class IndexManifest {
+  public static final int MAGIC = 0x43534d46;
+  public static final int VERSION = 1;
+
+  public static final int KIND_INDEXED = 0;
+  public static final int KIND_STACKOVERFLOW = 1;
+
+  private static final int HEADER_SIZE = 64;
+  private static final int RECORD_INTS = 8;
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  private final int _kind;
+  private final int _numDocs;
+  private final int _numTerms;
+  private final long _totalTermFrequency;
+  private final int[] _stringOffsets;
+  private final byte[] _strings;
+  private final int[] _docTermOffsets;
+  private final int[] _records;
+  // largest page rank and numviews of the documents from each docid on
+  private final float[] _maxPageRank;
+  private final int[] _maxNumViews;
+
+  private IndexManifest(ByteBuffer buffer) throws IOException {
+    if (buffer.getInt(0) != MAGIC) {
+      throw new IOException("Not an index manifest");
+    }
+    int version = buffer.getInt(4);
+    if (version != VERSION) {
+      throw new IOException("Unsupported index manifest version " + version
+          + ", rebuild the index with --mode=index");
+    }
+    _kind = buffer.getInt(8);
+    _numDocs = buffer.getInt(12);
+    _numTerms = buffer.getInt(16);
+    int numStrings = buffer.getInt(20);
+    _totalTermFrequency = buffer.getLong(24);
+
+    _stringOffsets = new int[numStrings + 1];
+    section(buffer, 32).asIntBuffer().get(_stringOffsets);
+    _strings = new byte[_stringOffsets[numStrings]];
+    section(buffer, 40).get(_strings);
+    _docTermOffsets = new int[_numDocs];
+    section(buffer, 48).asIntBuffer().get(_docTermOffsets);
+    _records = new int[_numDocs * RECORD_INTS];
+    section(buffer, 56).asIntBuffer().get(_records);
+    _maxPageRank = new float[_numDocs + 1];
+    _maxNumViews = new int[_numDocs + 1];
+    for (int docid = _numDocs - 1; docid >= 0; docid--) {
+      _maxPageRank[docid] = Math.max(_maxPageRank[docid + 1],
+          pageRank(docid));
+      _maxNumViews[docid] = Math.max(_maxNumViews[docid + 1],
+          numViews(docid));
+    }
+  }
+
+  private static ByteBuffer section(ByteBuffer buffer, int header) {
+    ByteBuffer view = buffer.duplicate();
+    view.position((int) buffer.getLong(header));
+    return view.slice();
+  }
+
+  public static IndexManifest load(String fileName) throws IOException {
+    RandomAccessFile raf = new RandomAccessFile(fileName, "r");
+    try {
+      FileChannel channel = raf.getChannel();
+      return new IndexManifest(channel.map(FileChannel.MapMode.READ_ONLY, 0,
+          channel.size()));
+    } finally {
+      raf.close();
+    }
+  }
+
+  public static void write(String fileName, int kind,
+      List<Document> documents, List<String> terms,
+      List<Integer> docTermOffsets, long totalTermFrequency)
+      throws IOException {
+    // terms take the first string ids, document strings are shared
+    StringPool pool = new StringPool();
+    for (String term : terms) {
+      pool.append(term);
+    }
+    int[] records = new int[documents.size() * RECORD_INTS];
+    for (int i = 0; i < documents.size(); i++) {
+      Document doc = documents.get(i);
+      int record = i * RECORD_INTS;
+      records[record] = pool.intern(doc.getTitle());
+      records[record + 1] = pool.intern(doc.getBaseUrl());
+      records[record + 2] = pool.intern(doc.getName());
+      records[record + 3] = pool.intern(doc.getPathPrefix());
+      records[record + 4] = Float.floatToIntBits(doc.getPageRank());
+      records[record + 5] = doc.getNumViews();
+      if (doc instanceof DocumentStackOverFlow) {
+        records[record + 6] = ((DocumentStackOverFlow) doc).getLength();
+        records[record + 7] = ((DocumentStackOverFlow) doc).getVote();
+      } else if (doc instanceof DocumentIndexed) {
+        records[record + 6] = ((DocumentIndexed) doc).getLength();
+      }
+    }
+
+    long stringOffsetSection = HEADER_SIZE;
+    long stringSection = stringOffsetSection + 4L * (pool._count + 1);
+    long docTermSection = stringSection + pool._data.size();
+    long documentSection = docTermSection + 4L * documents.size();
+
+    DataOutputStream writer = new DataOutputStream(new BufferedOutputStream(
+        new FileOutputStream(fileName)));
+    writer.writeInt(MAGIC);
+    writer.writeInt(VERSION);
+    writer.writeInt(kind);
+    writer.writeInt(documents.size());
+    writer.writeInt(terms.size());
+    writer.writeInt(pool._count);
+    writer.writeLong(totalTermFrequency);
+    writer.writeLong(stringOffsetSection);
+    writer.writeLong(stringSection);
+    writer.writeLong(docTermSection);
+    writer.writeLong(documentSection);
+    for (int i = 0; i <= pool._count; i++) {
+      writer.writeInt(pool._offsets[i]);
+    }
+    pool._data.writeTo(writer);
+    for (int i = 0; i < documents.size(); i++) {
+      writer.writeInt(docTermOffsets.get(i));
+    }
+    for (int value : records) {
+      writer.writeInt(value);
+    }
+    writer.close();
+  }
+
+  public int numDocs() {
+    return _numDocs;
+  }
+
+  public int numTerms() {
+    return _numTerms;
+  }
+
+  public long totalTermFrequency() {
+    return _totalTermFrequency;
+  }
+
+  // Term ids are string ids, see the layout above.
+  public String term(int termId) {
+    return string(termId);
+  }
+
+  public int docTermOffset(int docid) {
+    return _docTermOffsets[docid];
+  }
+
+  /**
+   * Builds the Document for {@code docid}, null if there is no such document.
+   * Every call returns a new object.
+   */
+  public Document getDoc(int docid) {
+    if (docid < 0 || docid >= _numDocs) {
+      return null;
+    }
+    int record = docid * RECORD_INTS;
+    Document doc;
+    if (_kind == KIND_STACKOVERFLOW) {
+      DocumentStackOverFlow stackDoc = new DocumentStackOverFlow(docid);
+      stackDoc.setLength(_records[record + 6]);
+      stackDoc.setVote(_records[record + 7]);
+      doc = stackDoc;
+    } else {
+      DocumentIndexed indexedDoc = new DocumentIndexed(docid);
+      indexedDoc.setLength(_records[record + 6]);
+      doc = indexedDoc;
+    }
+    doc.setTitle(string(_records[record]));
+    doc.setBaseUrl(string(_records[record + 1]));
+    doc.setName(string(_records[record + 2]));
+    doc.setPathPrefix(string(_records[record + 3]));
+    doc.setPageRank(Float.intBitsToFloat(_records[record + 4]));
+    doc.setNumViews(_records[record + 5]);
+    return doc;
+  }
+
+  // Fields of the record of docid, as getDoc(docid) sets them.
+  public int length(int docid) {
+    return _records[docid * RECORD_INTS + 6];
+  }
+
+  public float pageRank(int docid) {
+    return Float.intBitsToFloat(_records[docid * RECORD_INTS + 4]);
+  }
+
+  public int numViews(int docid) {
+    return _records[docid * RECORD_INTS + 5];
+  }
+
+  // Largest page rank of the documents from docid on, 0 past the last one.
+  public float maxPageRank(int docid) {
+    return _maxPageRank[Math.min(docid, _numDocs)];
+  }
+
+  public int maxNumViews(int docid) {
+    return _maxNumViews[Math.min(docid, _numDocs)];
+  }
+
+  private String string(int id) {
+    int start = _stringOffsets[id];
+    return new String(_strings, start, _stringOffsets[id + 1] - start, UTF8);
+  }
+
+  // Concatenated UTF-8 strings with their start offsets.
+  private static class StringPool {
+    private final ByteArrayOutputStream _data = new ByteArrayOutputStream();
+    private final Map<String, Integer> _ids = new HashMap<String, Integer>();
+    private int[] _offsets = new int[16];
+    private int _count = 0;
+
+    int append(String value) {
+      byte[] bytes = (value == null ? "" : value).getBytes(UTF8);
+      _data.write(bytes, 0, bytes.length);
+      if (_count + 1 == _offsets.length) {
+        _offsets = Arrays.copyOf(_offsets, _offsets.length * 2);
+      }
+      _offsets[++_count] = _data.size();
+      return _count - 1;
+    }
+
+    int intern(String value) {
+      Integer id = _ids.get(value);
+      if (id == null) {
+        id = append(value);
+        _ids.put(value, id);
+      }
+      return id;
+    }
+  }
+}
@@ -72,6 +72,105 @@ public abstract class Indexer {
    */
   public abstract Document nextDoc(Query query, int docid);
 
+  /**
+   * Per-request access to the documents satisfying {@code query}. The returned
+   * cursor owns all traversal state, so concurrent requests each use their own
+   * cursor over the same read-only Indexer. Rankers should prefer this over
+   * repeated {@link #nextDoc(Query, int)} calls.
+   *
+   * Indexers without per-query state simply delegate to {@link #nextDoc} and
+   * {@link #documentTermFrequency}.
+   *
+   * @param query
+   * @return a new cursor positioned before the first document
+   */
+  public QueryCursor getQueryCursor(final Query query) {
+    return new QueryCursor() {
+      @Override
+      public Document nextDoc(int docid) {
+        return Indexer.this.nextDoc(query, docid);
+      }
+
+      @Override
+      public int documentTermFrequency(String term, int docid) {
+        return Indexer.this.documentTermFrequency(term, docid);
+      }
+    };
+  }
+
+  // Opens a fresh iterator over the posting list of {@code term}, or returns
+  // null if the term is not indexed. Used by {@link InvertedQueryCursor}.
+  PostingIterator getPostingIterator(String term) {
+    return null;
+  }
+
+  // Cursor over the hot tier of the index alone, a small set of documents
+  // with the best page rank and numviews; null if the index has no tier.
+  QueryCursor getTierCursor(Query query) {
+    return null;
+  }
+
+  // Like {@link #getPostingIterator} over the hot tier.
+  PostingIterator getTierPostingIterator(String term) {
+    return null;
+  }
+
+  boolean inTier(int docid) {
+    return false;
+  }
+
+  // Like {@link #maxTermRatio} over the documents outside the hot tier.
+  double maxTermRatioOutsideTier(String term) {
+    return 1.0;
+  }
+
+  // Largest page rank and numviews of the documents outside the hot tier,
+  // -1 if the index has no tier.
+  float maxPageRankOutsideTier() {
+    return -1;
+  }
+
+  int maxNumViewsOutsideTier() {
+    return -1;
+  }
+
+  // Largest number of times {@code term} appears in a single document, or -1
+  // if the indexer keeps no such bounds. Rankers use it with
+  // {@link #maxTermRatio} to skip documents that can not make the results.
+  int maxTermFrequency(String term) {
+    return -1;
+  }
+
+  // Largest frequency / length of {@code term} over all documents, only
+  // meaningful when {@link #maxTermFrequency} is not -1.
+  double maxTermRatio(String term) {
+    return 1.0;
+  }
+
+  // The length, page rank and numviews {@link #getDoc} would set, indexers
+  // that can read them without building the Document override these.
+  int documentLength(int docid) {
+    return ((DocumentIndexed) getDoc(docid)).getLength();
+  }
+
+  float documentPageRank(int docid) {
+    return getDoc(docid).getPageRank();
+  }
+
+  int documentNumViews(int docid) {
+    return getDoc(docid).getNumViews();
+  }
+
+  // Largest page rank and numviews of the documents from {@code docid} on,
+  // -1 if unknown.
+  float maxPageRank(int docid) {
+    return -1;
+  }
+
+  int maxNumViews(int docid) {
+    return -1;
+  }
+
   // APIs for index construction and loading.
 
   /**
@@ -153,6 +252,8 @@ public abstract class Indexer {
         return new IndexerInvertedOccurrence(options);
       } else if (options._indexerType.equals("inverted-compressed")) {
         return new IndexerInvertedCompressed(options);
+      } else if (options._indexerType.equals("inverted-split")) {
+        return new IndexerInvertedSplit(options);
       } else if (options._indexerType.equals("stackoverflow-compressed")) {
         return new IndexerStackOverFlowCompressed(options);
       }
@@ -2,26 +2,36 @@ package edu.nyu.cs.cs2580;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
-import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
-import java.io.FileReader;
 import java.io.IOException;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.io.OutputStream;
 import java.io.RandomAccessFile;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
 import java.util.Scanner;
-import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.jsoup.Jsoup;
 
@@ -33,40 +43,67 @@ import edu.nyu.cs.cs2580.SearchEngine.Options;
 public class IndexerInvertedCompressed extends Indexer implements Serializable {
 
   private static final long serialVersionUID = 5984985672402218465L;
-  private static final transient int CACHE_SIZE = 20;
-  private static final transient int PARTIAL_SIZE = 205;
 
   /** ---- Private instances ---- */
-  private transient Map<Integer, List<Integer>> _postingLists = new HashMap<Integer, List<Integer>>();
-  private transient Map<Integer, Integer> cacheIndex = null;
+  private transient Map<Integer, PostingList.Builder> _postingBuilders = new HashMap<Integer, PostingList.Builder>();
   private transient Map<String, Integer> _numViews = new HashMap<String, Integer>();
   private transient Map<String, Float> _pageRanks = new HashMap<String, Float>();
   private transient List<Integer> _diskLength = new ArrayList<Integer>();
+  // memory taken by _postingBuilders, a part is written once it is full
+  private transient PostingMemory _postingMemory = null;
 
-  // disk postings lists offset
+  // term to term id while indexing, the id indexes _termList and _listOffsets
   private transient Map<String, Integer> _diskIndex = new HashMap<String, Integer>();
+  // term to term id at serve time
+  protected transient TermDictionary _dictionary = null;
+  // disk postings lists offset of each term id
+  private transient long[] _listOffsets = null;
+  // corpus.list mapped into memory at serve time
+  private transient MappedPostingFile _postingFile = null;
+  // df, cf and list length of each term id
+  protected transient Lexicon _lexicon = null;
+  // per term score ceilings, null for indexes written before them
+  private transient TermBounds _bounds = null;
+  // per block score ceilings of the skip lists, null when not kept
+  private transient BlockBounds _blockBounds = null;
+  // documents of the hot tier, their lists in memory at serve time; null
+  // when the index has no tier
+  private transient HotTier _tier = null;
+  // largest page rank and numviews outside the tier
+  private transient float _maxPageRankOutsideTier = 0;
+  private transient int _maxNumViewsOutsideTier = 0;
   // doc terms and frequency
   private transient Map<Integer, Integer> docTermMap = new HashMap<Integer, Integer>();
 
-  // Cache current running query
-  private transient String currentQuery = "";
-  private transient String currentTerm = "";
   private transient String indexFile = "";
-  private transient String diskIndexFile = "";
+  private transient String manifestFile = "";
+  protected transient String diskIndexFile = "";
   private transient String docTermFile = "";
-  private transient String postingListFile = "";
-  private transient int cacheTermListIndex = 0;
+  protected transient String postingListFile = "";
+  private transient String lexiconFile = "";
+  private transient String boundsFile = "";
+  private transient String blockBoundsFile = "";
+  private transient String tierFile = "";
+  private transient String dictionaryFile = "";
   private transient int partNumber = 0;
-  private transient List<Integer> cacheTermList;
 
   // outputstream to write uniq terms of a doc to disk
   private transient DataOutputStream docTermWriter;
+  // writes the partial runs in the background while parsing goes on
+  private transient ExecutorService flusher = null;
+  private transient Future<?> pendingFlush = null;
+
+  // new docid of each docid assigned while reading, null when documents keep
+  // the docids they are read with
+  private transient int[] _newDocids = null;
 
   // doc term list offset
   private List<Integer> _docTermOffset = new ArrayList<Integer>();
 
   // Store all the documents
   private List<Document> _documents = new ArrayList<Document>();
+  // documents, terms and doc term offsets once loaded for serving
+  private transient IndexManifest _manifest = null;
 
   // store all the terms
   private List<String> _termList = new ArrayList<String>();
@@ -79,73 +116,71 @@ public class IndexerInvertedCompressed extends Indexer implements Serializable {
   public IndexerInvertedCompressed(Options options) {
     super(options);
     indexFile = _options._indexPrefix + "/corpus.object";
+    manifestFile = _options._indexPrefix + "/corpus.manifest";
     diskIndexFile = _options._indexPrefix + "/corpus.idx";
     docTermFile = _options._indexPrefix + "/corpus.docterm";
     postingListFile = _options._indexPrefix + "/corpus.list";
+    lexiconFile = _options._indexPrefix + "/corpus.lexicon";
+    boundsFile = _options._indexPrefix + "/corpus.bounds";
+    blockBoundsFile = _options._indexPrefix + "/corpus.blockmax";
+    tierFile = _options._indexPrefix + "/corpus.tier";
+    dictionaryFile = _options._indexPrefix + "/corpus.dict";
     System.out.println("Using Indexer: " + this.getClass().getSimpleName());
   }
 
-  @SuppressWarnings("unchecked")
   @Override
   public void constructIndex() throws IOException {
+    constructIndex(null);
+  }
+
+  /**
+   * Builds the index, also handing every document read to scan unless it is
+   * null (--mode=build). The page ranks and numviews are only set once all
+   * documents are read, so the scan can compute them on the way.
+   */
+  @SuppressWarnings("unchecked")
+  void constructIndex(CorpusScan scan) throws IOException {
     // delete already existing index files
     deleteExistingFiles();
     long start = System.currentTimeMillis();
+    flusher = Executors.newSingleThreadExecutor();
+    _postingMemory = new PostingMemory(_options._indexMemoryBudget);
+    docTermWriter = new DataOutputStream(new BufferedOutputStream(
+        new FileOutputStream(docTermFile)));
+    System.out.println("Construct index from: " + _options._corpusPrefix);
+    indexSource(openSource(_options._corpusPrefix, scan), true);
+    // index stackoverFlow as normal corpus
+    if (new File(_options._stackOverFlowPrefix).exists()) {
+      indexSource(openSource(_options._stackOverFlowPrefix, scan), false);
+    }
+    docTermWriter.close();
+    writeMapToDisk();
+    waitForFlush();
+    flusher.shutdown();
+    if (scan != null) {
+      scan.finish();
+    }
     _pageRanks = (HashMap<String, Float>) _corpusAnalyzer.load();
     _numViews = (HashMap<String, Integer>) _logMiner.load();
-    File corpusDirectory = new File(_options._corpusPrefix);
-    if (corpusDirectory.isDirectory()) {
-      System.out.println("Construct index from: " + corpusDirectory);
-      File[] allFiles = corpusDirectory.listFiles();
-      // If corpus is in the corpus tsv file
-      if (allFiles.length == 1 && allFiles[0].getName() == "corpus.tsv") {
-        BufferedReader reader = new BufferedReader(new FileReader(
-            corpusDirectory + "/corpus.tsv"));
-        try {
-          String line = null;
-          while ((line = reader.readLine()) != null) {
-            processDocument(line);
-          }
-        } finally {
-          reader.close();
-        }
+    for (Document document : _documents) {
+      String fileName = document.getName();
+      if (_numViews.containsKey(fileName)) {
+        document.setNumViews(_numViews.get(fileName));
       } else {
-        docTermWriter = new DataOutputStream(new BufferedOutputStream(
-            new FileOutputStream(docTermFile)));
-        for (File file : allFiles) {
-          if (file.getName().startsWith(".")
-              || file.getName().endsWith(".html")) {
-            continue;
-          }
-          processDocument(file, _options._corpusPrefix);
-          if (_numDocs % PARTIAL_SIZE == 0) {
-            writeMapToDisk();
-            _postingLists.clear();
-          }
-        }
-
-        // index stackoverFlow as normal corpus
-        File stackOverFlowDir = new File(_options._stackOverFlowPrefix);
-        if (stackOverFlowDir.isDirectory()) {
-          allFiles = stackOverFlowDir.listFiles();
-          for (File file : allFiles) {
-            if (file.getName().startsWith(".")) {
-              continue;
-            }
-            processDocument(file, _options._stackOverFlowPrefix);
-            if (_numDocs % PARTIAL_SIZE == 0) {
-              writeMapToDisk();
-              _postingLists.clear();
-            }
-          }
-        }
-        docTermWriter.close();
+        document.setNumViews(0);
+      }
+      if (_pageRanks.containsKey(fileName)) {
+        document.setPageRank(_pageRanks.get(fileName));
+      } else {
+        document.setPageRank(0);
       }
-    } else {
-      throw new IOException("Corpus prefix is not a direcroty");
     }
-    writeMapToDisk();
-    _postingLists.clear();
+    if (_options._docidByQuality) {
+      renumberByQuality();
+    }
+    if (_options._tierFraction > 0) {
+      selectTier();
+    }
     writeIndexToDisk();
     _totalTermFrequency = totalTermFrequency;
     System.out.println("System time lapse: "
@@ -154,6 +189,91 @@ public class IndexerInvertedCompressed extends Indexer implements Serializable {
         + Long.toString(_totalTermFrequency) + " terms.");
   }
 
+  /**
+   * Gives the documents new docids in {@link #qualityOrder}. The documents
+   * and the doc term file are reordered here; the posting lists are
+   * rewritten with the new docids as they are merged.
+   */
+  private void renumberByQuality() throws IOException {
+    int n = _documents.size();
+    Integer[] order = qualityOrder();
+
+    _newDocids = new int[n];
+    List<Document> documents = new ArrayList<Document>(n);
+    List<Integer> docTermOffset = new ArrayList<Integer>(n);
+    String renumbered = docTermFile + ".renumber";
+    RandomAccessFile reader = new RandomAccessFile(docTermFile, "r");
+    DataOutputStream writer = new DataOutputStream(new BufferedOutputStream(
+        new FileOutputStream(renumbered)));
+    try {
+      byte[] terms = new byte[0];
+      for (int i = 0; i < n; i++) {
+        int docid = order[i];
+        _newDocids[docid] = i;
+        Document document = _documents.get(docid);
+        document._docid = i;
+        documents.add(document);
+        int start = docid == 0 ? 0 : _docTermOffset.get(docid - 1);
+        int length = _docTermOffset.get(docid) - start;
+        if (terms.length < length) {
+          terms = new byte[length];
+        }
+        reader.seek(start);
+        reader.readFully(terms, 0, length);
+        writer.write(terms, 0, length);
+        docTermOffset.add(writer.size());
+      }
+    } finally {
+      reader.close();
+      writer.close();
+    }
+    File docTerms = new File(docTermFile);
+    if (!docTerms.delete() || !new File(renumbered).renameTo(docTerms)) {
+      throw new IOException("Can not replace " + docTermFile);
+    }
+    _documents = documents;
+    _docTermOffset = docTermOffset;
+  }
+
+  // The hot tier holds the first _tierFraction of the documents in
+  // qualityOrder().
+  private void selectTier() {
+    Integer[] order = qualityOrder();
+    int size = (int) Math.ceil(_options._tierFraction * order.length);
+    BitSet documents = new BitSet(order.length);
+    for (int i = 0; i < size; i++) {
+      documents.set(order[i]);
+    }
+    _tier = new HotTier(documents);
+  }
+
+  // Docids by descending page rank times numviews, then page rank, then
+  // numviews, in reading order among equals.
+  private Integer[] qualityOrder() {
+    int n = _documents.size();
+    Integer[] order = new Integer[n];
+    for (int i = 0; i < n; i++) {
+      order[i] = i;
+    }
+    Arrays.sort(order, new Comparator<Integer>() {
+      @Override
+      public int compare(Integer a, Integer b) {
+        Document x = _documents.get(a);
+        Document y = _documents.get(b);
+        int c = Double.compare((double) y.getPageRank() * y.getNumViews(),
+            (double) x.getPageRank() * x.getNumViews());
+        if (c == 0) {
+          c = Float.compare(y.getPageRank(), x.getPageRank());
+        }
+        if (c == 0) {
+          c = y.getNumViews() - x.getNumViews();
+        }
+        return c;
+      }
+    });
+    return order;
+  }
+
   // delete existing index files on the disk
   private void deleteExistingFiles() {
     File newfile = new File(_options._indexPrefix);
@@ -167,67 +287,128 @@ public class IndexerInvertedCompressed extends Indexer implements Serializable {
     }
   }
 
-  // process document in Corpus.tsv
-  private void processDocument(String content) {
-    Scanner s = new Scanner(content).useDelimiter("\t");
-    String title = s.next();
-    String body = s.next();
-    s.close();
-
-    String documentText = (title + body).toLowerCase();
-    int docid = _documents.size();
-    DocumentIndexed document = new DocumentIndexed(docid);
-    // Indexing.
-    int documentLength = indexDocument(documentText, docid);
-    document.setTitle(title);
-    document.setLength(documentLength);
+  private static DocumentSource openSource(String prefix, CorpusScan scan)
+      throws IOException {
+    DocumentSource source = DocumentSource.open(prefix);
+    return scan == null ? source : new DocumentSourceTap(source, scan);
+  }
 
-    _documents.add(document);
-    ++_numDocs;
+  // A document file parsed and tokenized by a parser thread, waiting to be
+  // indexed.
+  private static class ParsedDocument {
+    String name;
+    String title;
+    String pathPrefix;
+    List<String> terms;
   }
 
-  // process document in corpus where each document is a file
-  private void processDocument(File file, String pathPrefix)
+  /**
+   * Parses the documents of source on _options._indexThreads threads and
+   * indexes them one by one in source order, so docids and term ids, and
+   * with them every index file, do not depend on the number of threads.
+   * Documents are read sequentially on the calling thread.
+   *
+   * @param isCorpus true for the Wikipedia corpus, whose .html names are
+   *          skipped, false for the stackoverflow pages
+   */
+  private void indexSource(DocumentSource source, boolean isCorpus)
       throws IOException {
-    // Use jsoup to parse html
-    org.jsoup.nodes.Document parsedDocument = Jsoup.parse(file, "UTF-8");
-    String documentText = parsedDocument.text().toLowerCase();
+    ExecutorService parsers = Executors
+        .newFixedThreadPool(_options._indexThreads);
+    // bound the parsed documents waiting for the indexing thread
+    int window = _options._indexThreads * 4;
+    Queue<Future<ParsedDocument>> parsed = new ArrayDeque<Future<ParsedDocument>>();
+    final String pathPrefix = source.getPrefix();
+    final boolean isHtml = source.isHtml();
+    String baseUrl = isCorpus ? "en.wikipedia.org/wiki/"
+        : "stackoverflow.com/questions/";
+    boolean more = true;
+    try {
+      while (more || !parsed.isEmpty()) {
+        while (more && parsed.size() < window) {
+          more = source.next();
+          if (!more || (isCorpus && source.name().endsWith(".html"))) {
+            continue;
+          }
+          final String name = source.name();
+          final byte[] content = source.content();
+          parsed.add(parsers.submit(new Callable<ParsedDocument>() {
+            @Override
+            public ParsedDocument call() throws IOException {
+              return parseDocument(name, content, isHtml, pathPrefix);
+            }
+          }));
+        }
+        if (parsed.isEmpty()) {
+          break;
+        }
+        processDocument(getResult(parsed.poll()), baseUrl);
+        if (_postingMemory.isFull()) {
+          writeMapToDisk();
+        }
+      }
+    } finally {
+      parsers.shutdownNow();
+      source.close();
+    }
+  }
 
+  // Runs on the parser threads, touches no indexer state.
+  private static ParsedDocument parseDocument(String name, byte[] content,
+      boolean isHtml, String pathPrefix) throws IOException {
+    ParsedDocument parsed = new ParsedDocument();
+    parsed.name = name;
+    parsed.pathPrefix = pathPrefix;
+    if (isHtml) {
+      // Use jsoup to parse html
+      org.jsoup.nodes.Document parsedDocument = Jsoup.parse(
+          new ByteArrayInputStream(content), "UTF-8", "");
+      parsed.title = parsedDocument.title();
+      parsed.terms = tokenize(parsedDocument.text().toLowerCase());
+    } else {
+      // corpus.tsv lines are plain text named after their title
+      parsed.title = name;
+      parsed.terms = tokenize((name + new String(content, "UTF-8"))
+          .toLowerCase());
+    }
+    return parsed;
+  }
+
+  // Returns the result of a background task, rethrowing its failure.
+  private static <T> T getResult(Future<T> future) throws IOException {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      throw new IOException(e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      throw new IOException(e.getCause());
+    }
+  }
+
+  // process document in corpus where each document is a file
+  private void processDocument(ParsedDocument parsed, String baseUrl) {
     int docid = _documents.size();
     DocumentIndexed document = new DocumentIndexed(docid);
     // Indexing.
-    int documentLength = indexDocument(documentText, docid);
+    int documentLength = indexTerms(parsed.terms, docid);
 
     // set corresponding values
-    if (pathPrefix.equals("data/corpus")) {
-      document.setBaseUrl("en.wikipedia.org/wiki/");
-    } else {
-      document.setBaseUrl("stackoverflow.com/questions/");
-    }
-    document.setName(file.getName());
-    document.setPathPrefix(pathPrefix);
-    document.setTitle(parsedDocument.title());
+    document.setBaseUrl(baseUrl);
+    document.setName(parsed.name);
+    document.setPathPrefix(parsed.pathPrefix);
+    document.setTitle(parsed.title);
     document.setLength(documentLength);
-    String fileName = file.getName();
-    if (_numViews.containsKey(fileName)) {
-      document.setNumViews(_numViews.get(fileName));
-    } else {
-      document.setNumViews(0);
-    }
-    if (_pageRanks.containsKey(fileName)) {
-      document.setPageRank(_pageRanks.get(file.getName()));
-    } else {
-      document.setPageRank(0);
-    }
     _documents.add(document);
     ++_numDocs;
   }
 
-  // Constructing the posting list
-  private int indexDocument(String document, int docid) {
-    int offset = 0;
+  // Splits the text of a document into stemmed terms
+  private static List<String> tokenize(String document) {
+    List<String> terms = new ArrayList<String>();
     Scanner s = new Scanner(document);
-    List<Integer> list = null;
     Stemmer stemmer = new Stemmer();
     while (s.hasNext()) {
       String term = s.next();
@@ -236,21 +417,34 @@ public class IndexerInvertedCompressed extends Indexer implements Serializable {
       }
       stemmer.add(term.toCharArray(), term.length());
       stemmer.stemWithStep1();
-      term = stemmer.toString();
+      terms.add(stemmer.toString());
+    }
+    s.close();
+    return terms;
+  }
 
+  // Constructing the posting list
+  private int indexTerms(List<String> terms, int docid) {
+    int offset = 0;
+    PostingList.Builder list = null;
+    for (String term : terms) {
       // using _diskIndex as a dictionary, conver string to integer
+      int capacity;
       if (_diskIndex.containsKey(term)
-          && _postingLists.containsKey(_diskIndex.get(term))) {
-        list = _postingLists.get(_diskIndex.get(term));
+          && _postingBuilders.containsKey(_diskIndex.get(term))) {
+        list = _postingBuilders.get(_diskIndex.get(term));
+        capacity = list.capacity();
         list.add(docid);
       } else {
         // Encounter a new term, add to posting lists
-        list = new ArrayList<Integer>();
+        list = new PostingList.Builder();
+        _postingMemory.added(list);
+        capacity = list.capacity();
         list.add(docid);
         if (!_diskIndex.containsKey(term)) {
           _diskIndex.put(term, _diskIndex.size());
         }
-        _postingLists.put(_diskIndex.get(term), list);
+        _postingBuilders.put(_diskIndex.get(term), list);
       }
       // calculate each term frequency in document
       if (docTermMap.containsKey(_diskIndex.get(term))) {
@@ -260,26 +454,16 @@ public class IndexerInvertedCompressed extends Indexer implements Serializable {
         docTermMap.put(_diskIndex.get(term), 1);
       }
       list.add(offset);
+      _postingMemory.grown(list, capacity);
       totalTermFrequency++;
       offset++;
     }
-    s.close();
 
     // compressed terms of document and write into disk
     try {
-      List<Byte> docTermList = new ArrayList<Byte>();
       for (Integer key : docTermMap.keySet()) {
-        byte[] tempList = vByte(key);
-        for (byte byt : tempList) {
-          docTermList.add(byt);
-        }
-        tempList = vByte(docTermMap.get(key));
-        for (byte byt : tempList) {
-          docTermList.add(byt);
-        }
-      }
-      for (Byte byt : docTermList) {
-        docTermWriter.writeByte(byt);
+        docTermWriter.write(vByte(key));
+        docTermWriter.write(vByte(docTermMap.get(key)));
       }
       docTermWriter.flush();
       _docTermOffset.add(docTermWriter.size());
@@ -290,172 +474,177 @@ public class IndexerInvertedCompressed extends Indexer implements Serializable {
     return offset;
   }
 
-  /* write part of the postingslist in to disk free memory */
+  /*
+   * hand the postings collected so far to the flusher, which writes them as
+   * the next part while the following documents are indexed
+   */
   private void writeMapToDisk() throws IOException {
-    String outputFile = _options._indexPrefix + "/corpuspart"
+    // at most one part is held in memory on top of the one being filled
+    waitForFlush();
+    final String outputFile = _options._indexPrefix + "/corpuspart"
         + String.valueOf(partNumber) + ".list";
+    final Map<Integer, PostingList.Builder> builders = _postingBuilders;
+    _diskLength.add(builders.size());
+    partNumber++;
+    _postingBuilders = new HashMap<Integer, PostingList.Builder>();
+    _postingMemory.reset();
+    pendingFlush = flusher.submit(new Callable<Void>() {
+      @Override
+      public Void call() throws IOException {
+        writePart(builders, outputFile);
+        return null;
+      }
+    });
+  }
 
-    List<Integer> keyList = new ArrayList<Integer>(_postingLists.keySet());
+  private void waitForFlush() throws IOException {
+    if (pendingFlush != null) {
+      getResult(pendingFlush);
+      pendingFlush = null;
+    }
+  }
+
+  /* write part of the postingslist in to disk free memory */
+  private void writePart(Map<Integer, PostingList.Builder> builders,
+      String outputFile) throws IOException {
+    List<Integer> keyList = new ArrayList<Integer>(builders.keySet());
     Collections.sort(keyList);
     DataOutputStream writer = new DataOutputStream(new BufferedOutputStream(
         new FileOutputStream(outputFile)));
-
-    List<Byte> byteList = new ArrayList<Byte>();
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
     for (Integer key : keyList) {
-      byteList.clear();
-      List<Integer> termList = _postingLists.get(key);
-
-      // write the size of postings list
+      bytes.reset();
+      PostingList.Builder termList = builders.get(key);
       writer.writeInt(key);
       for (int k = 0; k < termList.size(); k++) {
         byte[] values = vByte(termList.get(k));
-        for (byte value : values) {
-          byteList.add(value);
-        }
-      }
-      writer.writeInt(byteList.size());
-      for (Byte value : byteList) {
-        writer.writeByte(value);
+        bytes.write(values, 0, values.length);
       }
+      // write the size of postings list
+      writer.writeInt(bytes.size());
+      bytes.writeTo(writer);
     }
-    _diskLength.add(_postingLists.size());
     writer.close();
-    partNumber++;
   }
 
-  private byte[] vByte(int num) {
-    byte[] ret = null;
-    if (num < 128) {
-      ret = new byte[1];
-      ret[0] = (byte) (num + 128);
-      return ret;
-    } else if (num < 16384) {
-      ret = new byte[2];
-      ret[0] = (byte) (num / 128);
-      ret[1] = (byte) (num % 128 + 128);
-    } else if (num < 2097152) {
-      ret = new byte[3];
-      ret[0] = (byte) (num / 16384);
-      byte[] rest = vByte(num % 16384);
-      if (rest.length == 1) {
-        ret[1] = 0;
-        ret[2] = rest[0];
-      } else {
-        ret[1] = rest[0];
-        ret[2] = rest[1];
-      }
-    } else if (num < 268435456) {
-      ret = new byte[4];
-      ret[0] = (byte) (num / 2097152);
-      byte[] rest = vByte(num % 2097152);
-      if (rest.length == 1) {
-        ret[1] = 0;
-        ret[2] = 0;
-        ret[3] = rest[0];
-      } else if (rest.length == 2) {
-        ret[1] = 0;
-        ret[2] = rest[0];
-        ret[3] = rest[1];
-      } else if (rest.length == 3) {
-        ret[1] = rest[0];
-        ret[2] = rest[1];
-        ret[3] = rest[2];
-      }
+  // vByte code of num: 7 bits per byte, most significant first, with the
+  // high bit set on the last byte. The one encoder of the vByte data every
+  // index file holds, for the indexers and the other writers alike.
+  static byte[] vByte(int num) {
+    byte[] bytes = new byte[vByteLength(num)];
+    for (int i = bytes.length - 1; i >= 0; i--, num >>>= 7) {
+      bytes[i] = (byte) (num & 0x7f);
     }
-    return ret;
+    bytes[bytes.length - 1] |= 0x80;
+    return bytes;
   }
 
-  private List<Integer> decodeByte(List<Byte> list) {
-    List<Byte> byteList = new ArrayList<Byte>();
-    List<Integer> ret = new ArrayList<Integer>();
-    for (int i = 0; i < list.size(); i++) {
-      if (list.get(i) < 0) {
-        byteList.add(list.get(i));
-        ret.add(convert(byteList));
-        byteList.clear();
-      } else {
-        byteList.add(list.get(i));
-      }
+  static int vByteLength(int value) {
+    int length = 1;
+    while ((value >>>= 7) != 0) {
+      length++;
     }
-    return ret;
+    return length;
   }
 
-  private int convert(List<Byte> byteList) {
-    if (byteList.size() == 1) {
-      return (byteList.get(0) + 128);
-    } else if (byteList.size() == 2) {
-      return (byteList.get(0) * 128 + (byteList.get(1) + 128));
-    } else if (byteList.size() == 3) {
-      return (byteList.get(0) * 16384 + byteList.get(1) * 128 + (byteList
-          .get(2) + 128));
-    } else {
-      return (byteList.get(0) * 2097152 + byteList.get(1) * 16384
-          + byteList.get(2) * 128 + (byteList.get(3) + 128));
+  // Writes vByte(value) to out without building the array.
+  static void writeVByte(OutputStream out, int value) throws IOException {
+    for (int shift = 7 * (vByteLength(value) - 1); shift > 0; shift -= 7) {
+      out.write((value >>> shift) & 0x7f);
     }
+    out.write((value & 0x7f) | 0x80);
   }
 
-  /* merge all the parts of postings lists into one */
-  private void writeIndexToDisk() throws FileNotFoundException, IOException {
-    int[] dictionaryList = new int[_diskIndex.size()];
-    for (int i = 0; i < dictionaryList.length; i++) {
-      dictionaryList[i] = i;
+  // decode the vByte stream straight from the buffer, the last byte of each
+  // number is the one with the high bit set
+  protected PostingList decodeByte(ByteBuffer buffer) {
+    // size the list exactly, each number ends with one high bit byte
+    int count = 0;
+    for (int i = buffer.position(); i < buffer.limit(); i++) {
+      if (buffer.get(i) < 0) {
+        count++;
+      }
+    }
+    PostingList.Builder ret = new PostingList.Builder(count);
+    int value = 0;
+    while (buffer.hasRemaining()) {
+      byte b = buffer.get();
+      if (b < 0) {
+        ret.add(value * 128 + (b + 128));
+        value = 0;
+      } else {
+        value = value * 128 + b;
+      }
     }
+    return ret.build();
+  }
 
-    List<Byte> diskList = new ArrayList<Byte>();
-    List<Byte> byteList = new ArrayList<Byte>();
-    int[] index = new int[partNumber];
-    int[] diskTerms = new int[partNumber];
-    int[] termSizes = new int[partNumber];
-    int offset = 0;
-
-    File[] inputFiles = new File[partNumber];
-    DataInputStream[] readers = new DataInputStream[partNumber];
-    for (int i = 0; i < partNumber; i++) {
-      inputFiles[i] = new File(_options._indexPrefix + "/corpuspart"
-          + String.valueOf(i) + ".list");
-      readers[i] = new DataInputStream(new BufferedInputStream(
-          new FileInputStream(inputFiles[i])));
+  /*
+   * merge all the parts of postings lists into one, ranges of term ids are
+   * merged in parallel and appended in order
+   */
+  private void writeIndexToDisk() throws FileNotFoundException, IOException {
+    int terms = _diskIndex.size();
+    int ranges = Math.max(1, Math.min(_options._indexThreads, terms));
+    ExecutorService mergers = Executors.newFixedThreadPool(ranges);
+    List<TermListWriter> writers = new ArrayList<TermListWriter>();
+    List<Future<Lexicon>> results = new ArrayList<Future<Lexicon>>();
+    List<TermBounds> rangeBounds = new ArrayList<TermBounds>();
+    List<BlockBounds> rangeBlocks = new ArrayList<BlockBounds>();
+    List<ByteArrayOutputStream> rangeTiers =
+        new ArrayList<ByteArrayOutputStream>();
+    Lexicon lexicon = new Lexicon(terms);
+    TermBounds bounds = new TermBounds(terms);
+    BlockBounds blockBounds = new BlockBounds(terms);
+    final int[] lengths = new int[_documents.size()];
+    for (int i = 0; i < lengths.length; i++) {
+      lengths[i] = ((DocumentIndexed) _documents.get(i)).getLength();
     }
-    DataOutputStream writer = new DataOutputStream(new BufferedOutputStream(
-        new FileOutputStream(postingListFile)));
-    DataOutputStream writer2 = new DataOutputStream(new BufferedOutputStream(
-        new FileOutputStream(diskIndexFile)));
-
-    for (int i = 0; i < partNumber; i++) {
-      diskTerms[i] = readers[i].readInt();
-      termSizes[i] = readers[i].readInt();
-    }
-    int j = 0;
-    int k = 0;
-    for (int i = 0; i < dictionaryList.length; i++) {
-      for (j = 0; j < partNumber; j++) {
-        if (diskTerms[j] == dictionaryList[i]) {
-          for (k = 0; k < termSizes[j]; k++) {
-            diskList.add(readers[j].readByte());
-          }
-          index[j]++;
-          if (index[j] < _diskLength.get(j)) {
-            diskTerms[j] = readers[j].readInt();
-            termSizes[j] = readers[j].readInt();
+    try {
+      for (int i = 0; i < ranges; i++) {
+        final int first = (int) ((long) terms * i / ranges);
+        final int last = (int) ((long) terms * (i + 1) / ranges);
+        final TermListWriter writer = newTermListWriter(".part" + i);
+        final TermBounds range = new TermBounds(last - first);
+        final BlockBounds blocks = writesBlockBounds() ? new BlockBounds(
+            last - first) : null;
+        final ByteArrayOutputStream tier = new ByteArrayOutputStream();
+        writers.add(writer);
+        rangeBounds.add(range);
+        rangeBlocks.add(blocks);
+        rangeTiers.add(tier);
+        results.add(mergers.submit(new Callable<Lexicon>() {
+          @Override
+          public Lexicon call() throws IOException {
+            return mergeRange(first, last, writer, range, blocks,
+                _tier == null ? null : new DataOutputStream(tier), lengths);
           }
-        }
+        }));
       }
-
-      writer.writeInt(diskList.size());
-      for (Byte value : diskList) {
-        writer.writeByte(value);
+      for (Future<Lexicon> result : results) {
+        lexicon.addAll(getResult(result));
       }
-
-      writer2.writeInt(offset);
-      offset += (diskList.size() + 4);
-      diskList.clear();
-      byteList.clear();
+      for (int i = 0; i < ranges; i++) {
+        bounds.addAll(rangeBounds.get(i));
+        if (rangeBlocks.get(i) != null) {
+          blockBounds.addAll(rangeBlocks.get(i));
+        }
+      }
+    } finally {
+      mergers.shutdownNow();
     }
-    writer.close();
-    writer2.close();
-    for (j = 0; j < partNumber; j++) {
-      readers[j].close();
-      inputFiles[j].delete();
+    TermListWriter.concat(writers, diskIndexFile);
+    lexicon.write(lexiconFile);
+    bounds.write(boundsFile);
+    if (writesBlockBounds()) {
+      blockBounds.write(blockBoundsFile);
+    }
+    if (_tier != null) {
+      _tier.write(tierFile, terms, rangeTiers);
+    }
+    for (int j = 0; j < partNumber; j++) {
+      new File(_options._indexPrefix + "/corpuspart" + String.valueOf(j)
+          + ".list").delete();
     }
 
     Map<Integer, String> tempMap = new HashMap<Integer, String>();
@@ -467,318 +656,292 @@ public class IndexerInvertedCompressed extends Indexer implements Serializable {
     }
     tempMap = null;
 
-    ObjectOutputStream os = new ObjectOutputStream(new BufferedOutputStream(
-        new FileOutputStream(indexFile)));
-    os.writeObject(this);
-    os.close();
+    TermDictionary.write(dictionaryFile, _termList);
+    IndexManifest.write(manifestFile, IndexManifest.KIND_INDEXED, _documents,
+        _termList, _docTermOffset, totalTermFrequency);
+
+  }
+
+  // Merges term ids first to last - 1 from all the parts into writer, returns
+  // their statistics and adds their bounds to bounds and blocks and their
+  // hot tier lists to tier, the last two unless null. Runs on a merge thread.
+  private Lexicon mergeRange(int first, int last, TermListWriter writer,
+      TermBounds bounds, BlockBounds blocks, DataOutputStream tier,
+      int[] lengths) throws IOException {
+    List<String> parts = new ArrayList<String>();
+    for (int j = 0; j < partNumber; j++) {
+      parts.add(_options._indexPrefix + "/corpuspart" + String.valueOf(j)
+          + ".list");
+    }
+    PostingRunMerger merger = new PostingRunMerger(parts, _diskLength);
+    merger.skipTo(first);
+
+    ByteArrayOutputStream diskList = new ByteArrayOutputStream();
+    Lexicon lexicon = new Lexicon(last - first);
+    // every output below reads the one decoding of the term
+    TermPostings postings = new TermPostings();
+    for (int i = first; i < last; i++) {
+      merger.copyTerm(i, diskList);
+      postings.decode(diskList.toByteArray());
+      if (_newDocids != null) {
+        postings.renumber(_newDocids);
+      }
+      lexicon.add(postings.documents(), postings.occurrences(),
+          writer.write(postings));
+      bounds.add(postings, lengths);
+      if (blocks != null) {
+        blocks.add(postings, lengths);
+      }
+      if (tier != null) {
+        _tier.writeList(postings, lengths, tier);
+      }
+      diskList.reset();
+    }
+    writer.close();
+    merger.close();
+    if (tier != null) {
+      tier.flush();
+    }
+    return lexicon;
+  }
+
+  /**
+   * Whether corpus.blockmax is written, its blocks are those of the lists of
+   * {@link #newTermListWriter}. Subclasses storing the lists in other blocks
+   * return false.
+   */
+  protected boolean writesBlockBounds() {
+    return true;
+  }
 
+  /**
+   * Returns the writer of one range of the final lists, the segment files are
+   * named after the final files plus {@code suffix}. Subclasses override it
+   * together with {@link #loadTermLists} to store the lists differently.
+   */
+  protected TermListWriter newTermListWriter(String suffix)
+      throws IOException {
+    return new SkipListWriter(postingListFile, suffix);
+  }
+
+  // Lists with a skip table ahead of the postings, see
+  // SkipListPostingIterator.
+  private static class SkipListWriter extends TermListWriter {
+    SkipListWriter(String postingListFile, String suffix) throws IOException {
+      super(new String[] { postingListFile }, suffix);
+    }
+
+    @Override
+    protected int writeList(TermPostings postings) throws IOException {
+      int length = SkipListPostingIterator.writeList(_streams[0], postings);
+      _sizes[0] += length;
+      return length;
+    }
+  }
+
+  // Loads whatever newTermListWriter wrote, _dictionary is already loaded.
+  protected void loadTermLists() throws IOException {
+    _listOffsets = new long[_dictionary.size()];
+    DataInputStream reader = new DataInputStream(new BufferedInputStream(
+        new FileInputStream(diskIndexFile)));
+    for (int i = 0; i < _listOffsets.length; i++) {
+      _listOffsets[i] = reader.readLong();
+    }
+    reader.close();
+    _postingFile = new MappedPostingFile(postingListFile);
   }
 
   @Override
   public void loadIndex() throws IOException, ClassNotFoundException {
-    System.out.println("Load index from: " + indexFile);
-    ObjectInputStream is = new ObjectInputStream(new BufferedInputStream(
-        new FileInputStream(indexFile)));
-    IndexerInvertedCompressed newIndexer = (IndexerInvertedCompressed) is
-        .readObject();
-    is.close();
-
-    this.totalTermFrequency = newIndexer.totalTermFrequency;
-    this._totalTermFrequency = this.totalTermFrequency;
-    this._documents = newIndexer._documents;
-    this._docTermOffset = newIndexer._docTermOffset;
-    this._termList = newIndexer._termList;
-    this._numDocs = _documents.size();
+    if (!new File(manifestFile).exists() && new File(indexFile).exists()) {
+      migrateIndex();
+    }
+    System.out.println("Load index from: " + manifestFile);
+    _manifest = IndexManifest.load(manifestFile);
+    this._totalTermFrequency = _manifest.totalTermFrequency();
+    this._numDocs = _manifest.numDocs();
+    this._documents = null;
+    this._docTermOffset = null;
+    this._termList = null;
     this._diskLength = null;
     this._pageRanks = null;
     this._numViews = null;
     this.docTermMap = null;
 
-    cacheIndex = new HashMap<Integer, Integer>();
-    DataInputStream reader = new DataInputStream(new BufferedInputStream(
-        new FileInputStream(diskIndexFile)));
-    for (String str : _termList) {
-      _diskIndex.put(str, reader.readInt());
+    this._diskIndex = null;
+
+    if (!new File(dictionaryFile).exists()) {
+      writeDictionary(_manifest, dictionaryFile);
+    }
+    _dictionary = TermDictionary.load(dictionaryFile);
+    loadTermLists();
+    _lexicon = Lexicon.load(lexiconFile);
+    if (new File(boundsFile).exists()) {
+      _bounds = TermBounds.load(boundsFile);
+    }
+    if (writesBlockBounds() && new File(blockBoundsFile).exists()) {
+      _blockBounds = BlockBounds.load(blockBoundsFile);
+    }
+    if (new File(tierFile).exists()) {
+      _tier = HotTier.load(tierFile);
+      for (int docid = 0; docid < _numDocs; docid++) {
+        if (!_tier.contains(docid)) {
+          _maxPageRankOutsideTier = Math.max(_maxPageRankOutsideTier,
+              _manifest.pageRank(docid));
+          _maxNumViewsOutsideTier = Math.max(_maxNumViewsOutsideTier,
+              _manifest.numViews(docid));
+        }
+      }
+      System.out.println(Integer.toString(_tier.size())
+          + " documents in the hot tier");
     }
-    reader.close();
     // Loading each size of the term posting list.
     System.out.println(Integer.toString(_numDocs) + " documents loaded "
         + "with " + Long.toString(_totalTermFrequency) + " terms!");
   }
 
+  // Index directories written before the manifest only have the serialized
+  // indexer object, convert it once.
+  private void migrateIndex() throws IOException, ClassNotFoundException {
+    System.out.println("Migrate " + indexFile + " to " + manifestFile);
+    ObjectInputStream is = new ObjectInputStream(new BufferedInputStream(
+        new FileInputStream(indexFile)));
+    IndexerInvertedCompressed oldIndexer = (IndexerInvertedCompressed) is
+        .readObject();
+    is.close();
+    IndexManifest.write(manifestFile, IndexManifest.KIND_INDEXED,
+        oldIndexer._documents, oldIndexer._termList,
+        oldIndexer._docTermOffset, oldIndexer.totalTermFrequency);
+  }
+
+  // Index directories written before the term dictionary rebuild it from the
+  // terms of the manifest.
+  static void writeDictionary(IndexManifest manifest, String fileName)
+      throws IOException {
+    System.out.println("Write term dictionary to " + fileName);
+    List<String> terms = new ArrayList<String>(manifest.numTerms());
+    for (int i = 0; i < manifest.numTerms(); i++) {
+      terms.add(manifest.term(i));
+    }
+    TermDictionary.write(fileName, terms);
+  }
+
   @Override
   public Document getDoc(int docid) {
-    return (docid >= _documents.size() || docid < 0) ? null : _documents
-        .get(docid);
+    return _manifest.getDoc(docid);
   }
 
   /**
    * In HW2, you should be using {@link DocumentIndexed}
+   *
+   * Every call opens a new cursor, rankers iterate through
+   * {@link #getQueryCursor(Query)} instead.
    */
   @Override
   public Document nextDoc(Query query, int docid) {
     if (query == null) {
       return null;
     }
+    return getQueryCursor(query).nextDoc(docid);
+  }
 
-    // If enconter a new query, load all the postings list into memory
-    // of the term in query
-    if (!currentQuery.equals(query._query)) {
-      currentQuery = query._query;
-      loadQueryList(query);
-    }
-    while (true) {
-      boolean found = true;
-      // get next document contain all terms
-      int docCandidate = nextContainAllDocument(query, docid);
-      if (docCandidate == -1) {
-        return null;
-      }
+  @Override
+  public QueryCursor getQueryCursor(Query query) {
+    return new InvertedQueryCursor(this, query);
+  }
 
-      // check whether meet phrase restrain
-      Vector<String> phrases = query._tokens;
-      for (String phrase : phrases) {
-        String[] terms = phrase.trim().split(" +");
-        if (terms.length != 1) {
-          if (!containPhrase(terms, docCandidate)) {
-            found = false;
-            break;
-          }
-        }
-      }
-      if (found) {
-        return getDoc(docCandidate);
-      }
-      docid = docCandidate;
+  @Override
+  PostingIterator getPostingIterator(String term) {
+    int id = _dictionary.termId(term);
+    if (id < 0) {
+      return null;
     }
+    return new SkipListPostingIterator(_postingFile.getList(_listOffsets[id]),
+        _blockBounds, id);
   }
 
-  /* load all the postings lists into memory */
-  private void loadQueryList(Query query) {
-    _postingLists.clear();
-    cacheIndex.clear();
-    Vector<String> terms = ((QueryPhrase) query).getUniqTermVector();
-    for (String term : terms) {
-      if (_diskIndex.containsKey(term)) {
-        if (!_postingLists.containsKey(_diskIndex.get(term))) {
-          _postingLists.put(_diskIndex.get(term),
-              decodeByte(getTermListFromDisk(term)));
-          cacheIndex.put(_diskIndex.get(term), 0);
-          if (_postingLists.size() >= CACHE_SIZE) {
-            return;
-          }
-        }
-      }
-    }
+  @Override
+  QueryCursor getTierCursor(Query query) {
+    return _tier == null ? null : new InvertedQueryCursor(this, query, true);
   }
 
-  /**
-   * Gets the term list from memory, or from disk when not in memory. If not in
-   * disk either, return null
-   * 
-   * @param term
-   * @return
-   */
-  private List<Integer> getTermList(String term) {
-    if (!_diskIndex.containsKey(term)) {
-      return null;
-    }
-    List<Integer> list;
-    if (_postingLists.containsKey(_diskIndex.get(term))) {
-      return _postingLists.get(_diskIndex.get(term));
-    } else {
-      list = decodeByte(getTermListFromDisk(term));
-      _postingLists.put(_diskIndex.get(term), list);
-      if (_postingLists.size() > CACHE_SIZE) {
-        _postingLists.clear();
-      }
-      return list;
-    }
+  @Override
+  PostingIterator getTierPostingIterator(String term) {
+    int id = _dictionary.termId(term);
+    return id < 0 || _tier == null ? null : _tier.iterator(id);
   }
 
-  // Given a term, load term list from disk
-  private List<Byte> getTermListFromDisk(String term) {
-    List<Byte> list = new ArrayList<Byte>();
-    int offset = _diskIndex.get(term);
-    String inputFile = _options._indexPrefix + "/corpus.list";
-    try {
-      RandomAccessFile raf = new RandomAccessFile(inputFile, "r");
-      DataInputStream reader = new DataInputStream(new BufferedInputStream(
-          new FileInputStream(raf.getFD())));
-      raf.seek(offset);
-      int size = reader.readInt();
-      for (int i = 0; i < size; i++) {
-        list.add((reader.readByte()));
-      }
-      raf.close();
-      reader.close();
-    } catch (Exception e) {
-      e.printStackTrace();
-    }
-    return list;
+  @Override
+  boolean inTier(int docid) {
+    return _tier != null && _tier.contains(docid);
   }
 
-  /**
-   * Returns the next document id in which contains all tokens from query.
-   * Returns -1 if no qualified document exists.
-   * 
-   * @param query
-   * @param docid
-   * @return
-   */
-  private int nextContainAllDocument(Query query, int docid) {
-    while (true) {
-      boolean isEqual = true;
-      List<Integer> docids = new ArrayList<Integer>();
-      Vector<String> terms = ((QueryPhrase) query).getUniqTermVector();
-      for (String term : terms) {
-        int d = next(term, docid);
-        if (d == -1)
-          return -1;
-        docids.add(d);
-      }
-      if (docids.size() == 0) {
-        return -1;
-      }
-      int result = docids.get(0);
-      for (int i = 1; i < docids.size(); i++) {
-        int id = docids.get(i);
-        if (result != id) {
-          // jump to next docid
-          isEqual = false;
-          break;
-        }
-      }
-      if (isEqual) {
-        return result;
-      }
-      docid = Collections.max(docids) - 1;
+  @Override
+  double maxTermRatioOutsideTier(String term) {
+    int id = _dictionary.termId(term);
+    return id < 0 || _tier == null ? 1.0 : _tier.maxRatioOutside(id);
+  }
 
-    }
+  @Override
+  float maxPageRankOutsideTier() {
+    return _tier == null ? -1 : _maxPageRankOutsideTier;
   }
 
-  /**
-   * Returns document id after the given document id Returns -1 if no document
-   * left to search
-   * 
-   * @param term
-   * @param docid
-   * @return
-   */
-  private int next(String term, int docid) {
+  @Override
+  int maxNumViewsOutsideTier() {
+    return _tier == null ? -1 : _maxNumViewsOutsideTier;
+  }
 
-    List<Integer> list = getTermList(term);
-    if (list == null) {
-      return -1;
-    }
-    // get cache position of the list
-    int cache = cacheIndex.get(_diskIndex.get(term));
-    if (list.size() == 0 || list.get(list.size() - 2) <= docid) {
-      return -1;
-    }
-    if (list.get(0) > docid) {
-      cacheIndex.put(_diskIndex.get(term), 0);
-      return list.get(0);
-    }
+  @Override
+  int maxTermFrequency(String term) {
+    int id = _dictionary.termId(term);
+    return id < 0 || _bounds == null ? -1 : _bounds.maxFrequency(id);
+  }
 
-    if (cache > 0) {
-      int current = list.get(cache);
-      int i = cache;
-      while (i >= 0 && list.get(i) == current) {
-        i = i - 2;
-      }
-      if (list.get(i) > docid) {
-        cache = 0;
-      }
-    }
-    while (list.get(cache) <= docid) {
-      cache = cache + 2;
-    }
-    cacheIndex.put(_diskIndex.get(term), cache);
-    return list.get(cache);
+  @Override
+  double maxTermRatio(String term) {
+    int id = _dictionary.termId(term);
+    return id < 0 || _bounds == null ? 1.0 : _bounds.maxRatio(id);
   }
 
-  // terms at least contain 2 words
-  private boolean containPhrase(String[] terms, int docid) {
-    int pos = -1;
-    // position == -1 indicate has searched to the end of the document
-    while (true) {
-      boolean contains = true;
-      List<Integer> positions = new ArrayList<Integer>();
+  @Override
+  int documentLength(int docid) {
+    return _manifest.length(docid);
+  }
 
-      for (String term : terms) {
-        int p = nextPos(term, docid, pos);
-        if (p == -1) {
-          return false;
-        }
-        positions.add(p);
-      }
+  @Override
+  float documentPageRank(int docid) {
+    return _manifest.pageRank(docid);
+  }
 
-      int p1 = positions.get(0);
-      for (int i = 1; i < positions.size(); i++) {
-        int p2 = positions.get(i);
-        if ((p1 + 1) != p2) {
-          contains = false;
-          break;
-        }
-        p1 = p2;
-      }
-      // if found
-      if (contains) {
-        return contains;
-      }
-      pos = Collections.min(positions);
-    }
+  @Override
+  int documentNumViews(int docid) {
+    return _manifest.numViews(docid);
   }
 
-  // return next occurrence of word in document after current position
-  private int nextPos(String word, int docid, int pos) {
-    List<Integer> list = getTermList(word);
-    if (list == null || list.size() == 0 || list.get(list.size() - 1) <= pos) {
-      return -1;
-    }
+  @Override
+  float maxPageRank(int docid) {
+    return _manifest.maxPageRank(docid);
+  }
 
-    int cache = cacheIndex.get(_diskIndex.get(word));
-    int p = 0;
-    while (list.get(cache) == docid) {
-      p = list.get(cache + 1);
-      if (p > pos) {
-        return p;
-      }
-      cache = cache + 2;
-    }
-    return -1;
+  @Override
+  int maxNumViews(int docid) {
+    return _manifest.maxNumViews(docid);
   }
 
   @Override
   // Number of documents in which {@code term} appeared, over the full
   // corpus.
   public int corpusDocFrequencyByTerm(String term) {
-    // check whether the term is in postingLists, if not load from disk
-    List<Integer> list = getTermList(term);
-    if (list == null) {
-      return 0;
-    }
-    int result = 0;
-    int docid = -1;
-    for (int i = 0; i < list.size(); i = i + 2) {
-      if (docid != list.get(i)) {
-        result++;
-        docid = list.get(i);
-      }
-    }
-    return result;
+    int id = _dictionary.termId(term);
+    return id < 0 ? 0 : _lexicon.docFrequency(id);
   }
 
   @Override
   // Number of times {@code term} appeared in corpus.
   public int corpusTermFrequency(String term) {
-    // check whether the term is in postingLists, if not load from disk
-    List<Integer> list = getTermList(term);
-    if (list == null) {
-      return 0;
-    }
-    return list.size() / 2;
+    int id = _dictionary.termId(term);
+    return id < 0 ? 0 : _lexicon.termFrequency(id);
   }
 
   /**
@@ -786,92 +949,32 @@ public class IndexerInvertedCompressed extends Indexer implements Serializable {
    */
   @Override
   public int documentTermFrequency(String term, int docid) {
-    // check whether the term is in postingLists, if not load from disk
-    List<Integer> list = null;
-    int cache = 0;
-    if (_postingLists.containsKey(_diskIndex.get(term))) {
-      list = _postingLists.get(_diskIndex.get(term));
-      cache = cacheIndex.get(_diskIndex.get(term));
-    } else {
-      if (!currentTerm.equals(term)) {
-        list = getTermList(term);
-        cacheTermList = list;
-        currentTerm = term;
-        cacheTermListIndex = 0;
-      } else {
-        list = cacheTermList;
-        cache = cacheTermListIndex;
-      }
-    }
-    if (list == null) {
-      return 0;
-    }
-    int result = 0;
-    if (list.get(list.size() - 2) < docid) {
+    PostingIterator iterator = getPostingIterator(term);
+    if (iterator == null || iterator.next(docid - 1) != docid) {
       return 0;
     }
-    if (cache == list.size()) {
-      cache = 0;
-    }
-    if (cache > 0) {
-      int current = list.get(cache);
-      int i = cache;
-      while (i >= 0 && list.get(i) == current) {
-        i = i - 2;
-      }
-      if (list.get(i) > docid) {
-        cache = 0;
-      } else if (list.get(i) == docid) {
-        while (i >= 0 && list.get(i) == docid) {
-          i = i - 2;
-        }
-        if (i == 0) {
-          cache = i;
-        } else {
-          cache = i + 2;
-        }
-      }
-    }
-    for (; cache < list.size(); cache = cache + 2) {
-      if (docid == list.get(cache)) {
-        result++;
-      }
-      if (list.get(cache) > docid) {
-        break;
-      }
-    }
-    if (_postingLists.containsKey(_diskIndex.get(term))) {
-      cacheIndex.put(_diskIndex.get(term), cache);
-    } else {
-      cacheTermListIndex = cache;
-    }
-    return result;
+    return iterator.frequency();
   }
 
   @Override
   public Map<String, Integer> getDocTermMap(int docid) {
     int offset = 0;
     if (docid != 0) {
-      offset = _docTermOffset.get(docid - 1);
+      offset = _manifest.docTermOffset(docid - 1);
     }
 
-    int size = _docTermOffset.get(docid) - offset;
-    List<Byte> byteList = new ArrayList<Byte>();
+    int size = _manifest.docTermOffset(docid) - offset;
+    byte[] bytes = new byte[size];
     Map<String, Integer> map = new HashMap<String, Integer>();
     try {
       RandomAccessFile raf = new RandomAccessFile(docTermFile, "r");
-      DataInputStream reader = new DataInputStream(new BufferedInputStream(
-          new FileInputStream(raf.getFD())));
       raf.seek(offset);
-      for (int i = 0; i < size; i++) {
-        byteList.add(reader.readByte());
-      }
-      List<Integer> termList = decodeByte(byteList);
+      raf.readFully(bytes);
+      raf.close();
+      PostingList termList = decodeByte(ByteBuffer.wrap(bytes));
       for (int i = 0; i < termList.size(); i += 2) {
-        map.put(_termList.get(termList.get(i)), termList.get(i + 1));
+        map.put(_manifest.term(termList.get(i)), termList.get(i + 1));
       }
-      raf.close();
-      reader.close();
     } catch (Exception e) {
       e.printStackTrace();
     }
@@ -880,6 +983,6 @@ public class IndexerInvertedCompressed extends Indexer implements Serializable {
 
   @Override
   public boolean hasTerm(String term) {
-    return _diskIndex.containsKey(term);
+    return _dictionary.termId(term) >= 0;
   }
 }
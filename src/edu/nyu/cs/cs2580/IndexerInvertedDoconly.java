@@ -12,16 +12,15 @@ import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.IOException;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.io.RandomAccessFile;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Scanner;
-import java.util.Vector;
 
 import edu.nyu.cs.cs2580.SearchEngine.Options;
 
@@ -34,12 +33,11 @@ public class IndexerInvertedDoconly extends Indexer implements Serializable {
 
   private static final long serialVersionUID = -2048986665889156698L;
 
-  private static final transient int CACHE_SIZE = 30;
   private static final transient int PARTIAL_SIZE = 256;
 
   // Using hashMap to present postinglists, each term has a list of Integers.
   // When serving, using as query cache
-  private transient Map<Integer, List<Integer>> _postingLists = new HashMap<Integer, List<Integer>>();
+  private transient Map<Integer, PostingList.Builder> _postingBuilders = new HashMap<Integer, PostingList.Builder>();
   private transient Map<String, Integer> _numViews = new HashMap<String, Integer>();
   private transient Map<String, Float> _pageRanks = new HashMap<String, Float>();
   private transient List<Integer> _diskLength = new ArrayList<Integer>();
@@ -49,14 +47,12 @@ public class IndexerInvertedDoconly extends Indexer implements Serializable {
   private transient Map<Integer, Integer> docTermMap = new HashMap<Integer, Integer>();
 
   // Cache current running query
-  private transient String currentQuery = "";
-  private transient String currentTerm = "";
   private transient String indexFile = "";
+  private transient String manifestFile = "";
   private transient String diskIndexFile = "";
   private transient String docTermFile = "";
   private transient String postingListFile = "";
   private transient int partNumber = 0;
-  private transient List<Integer> cacheTermList;
   private transient DataOutputStream docTermWriter;
 
   // doc term list offset
@@ -64,6 +60,8 @@ public class IndexerInvertedDoconly extends Indexer implements Serializable {
 
   // Store all the documents
   private List<Document> _documents = new ArrayList<Document>();
+  // documents, terms and doc term offsets once loaded for serving
+  private transient IndexManifest _manifest = null;
 
   // store all the terms
   private List<String> _termList = new ArrayList<String>();
@@ -77,6 +75,7 @@ public class IndexerInvertedDoconly extends Indexer implements Serializable {
   public IndexerInvertedDoconly(Options options) {
     super(options);
     indexFile = _options._indexPrefix + "/corpus.object";
+    manifestFile = _options._indexPrefix + "/corpus.manifest";
     diskIndexFile = _options._indexPrefix + "/corpus.idx";
     docTermFile = _options._indexPrefix + "/corpus.docterm";
     postingListFile = _options._indexPrefix + "/corpus.list";
@@ -118,7 +117,7 @@ public class IndexerInvertedDoconly extends Indexer implements Serializable {
           processDocument(file, _options._corpusPrefix);
           if (_numDocs % PARTIAL_SIZE == 0) {
             writeMapToDisk();
-            _postingLists.clear();
+            _postingBuilders.clear();
           }
         }
         File stackOverFlowDir = new File(_options._stackOverFlowPrefix);
@@ -131,7 +130,7 @@ public class IndexerInvertedDoconly extends Indexer implements Serializable {
             processDocument(file, _options._stackOverFlowPrefix);
             if (_numDocs % PARTIAL_SIZE == 0) {
               writeMapToDisk();
-              _postingLists.clear();
+              _postingBuilders.clear();
             }
           }
         }
@@ -141,7 +140,7 @@ public class IndexerInvertedDoconly extends Indexer implements Serializable {
       throw new IOException("Corpus prefix is not a direcroty");
     }
     writeMapToDisk();
-    _postingLists.clear();
+    _postingBuilders.clear();
     writeIndexToDisk();
     _totalTermFrequency = totalTermFrequency;
     System.out.println("System time lapse: "
@@ -219,7 +218,7 @@ public class IndexerInvertedDoconly extends Indexer implements Serializable {
   // Constructing the posting list
   private int indexDocument(String document, int docid) {
     Scanner s = new Scanner(document);
-    List<Integer> list = null;
+    PostingList.Builder list = null;
     Stemmer stemmer = new Stemmer();
     int docLength = 0;
     while (s.hasNext()) {
@@ -231,8 +230,8 @@ public class IndexerInvertedDoconly extends Indexer implements Serializable {
       stemmer.stemWithStep1();
       term = stemmer.toString();
       if (_diskIndex.containsKey(term)
-          && _postingLists.containsKey(_diskIndex.get(term))) {
-        list = _postingLists.get(_diskIndex.get(term));
+          && _postingBuilders.containsKey(_diskIndex.get(term))) {
+        list = _postingBuilders.get(_diskIndex.get(term));
         int lastIndex = list.size() - 1;
         if (list.get(lastIndex - 1) == docid) {
           int oldCount = list.get(lastIndex);
@@ -245,14 +244,14 @@ public class IndexerInvertedDoconly extends Indexer implements Serializable {
         }
       } else {
         // Encounter a new term, add to posting lists
-        list = new ArrayList<Integer>();
+        list = new PostingList.Builder();
         list.add((docid));
         list.add((1));
         if (!_diskIndex.containsKey(term)) {
           _diskIndex.put(term, _diskIndex.size());
         }
         docTermMap.put(_diskIndex.get(term), 1);
-        _postingLists.put(_diskIndex.get(term), list);
+        _postingBuilders.put(_diskIndex.get(term), list);
       }
       totalTermFrequency++;
       docLength++;
@@ -280,19 +279,19 @@ public class IndexerInvertedDoconly extends Indexer implements Serializable {
     String outputFile = _options._indexPrefix + "/corpuspart"
         + String.valueOf(partNumber) + ".list";
 
-    List<Integer> keyList = new ArrayList<Integer>(_postingLists.keySet());
+    List<Integer> keyList = new ArrayList<Integer>(_postingBuilders.keySet());
     Collections.sort(keyList);
     DataOutputStream writer = new DataOutputStream(new BufferedOutputStream(
         new FileOutputStream(outputFile)));
     for (Integer key : keyList) {
-      List<Integer> termList = _postingLists.get(key);
+      PostingList.Builder termList = _postingBuilders.get(key);
       writer.writeInt(key);
       writer.writeInt(termList.size());
-      for (Integer value : termList) {
-        writer.writeInt(value);
+      for (int k = 0; k < termList.size(); k++) {
+        writer.writeInt(termList.get(k));
       }
     }
-    _diskLength.add(_postingLists.size());
+    _diskLength.add(_postingBuilders.size());
     writer.close();
     partNumber++;
   }
@@ -304,7 +303,7 @@ public class IndexerInvertedDoconly extends Indexer implements Serializable {
       dictionaryList[i] = i;
     }
 
-    List<Integer> diskList = new ArrayList<Integer>();
+    PostingList.Builder diskList = new PostingList.Builder();
     int[] index = new int[partNumber];
     int[] diskTerms = new int[partNumber];
     int[] termSizes = new int[partNumber];
@@ -344,8 +343,8 @@ public class IndexerInvertedDoconly extends Indexer implements Serializable {
       }
 
       writer.writeInt(diskList.size());
-      for (Integer value : diskList) {
-        writer.writeInt(value);
+      for (k = 0; k < diskList.size(); k++) {
+        writer.writeInt(diskList.get(k));
       }
 
       writer2.writeInt(offset);
@@ -369,27 +368,22 @@ public class IndexerInvertedDoconly extends Indexer implements Serializable {
     }
     tempMap = null;
 
-    ObjectOutputStream os = new ObjectOutputStream(new BufferedOutputStream(
-        new FileOutputStream(indexFile)));
-    os.writeObject(this);
-    os.close();
+    IndexManifest.write(manifestFile, IndexManifest.KIND_INDEXED, _documents,
+        _termList, _docTermOffset, totalTermFrequency);
   }
 
   @Override
   public void loadIndex() throws IOException, ClassNotFoundException {
-    System.out.println("Load index from: " + indexFile);
-    ObjectInputStream is = new ObjectInputStream(new BufferedInputStream(
-        new FileInputStream(indexFile)));
-    IndexerInvertedDoconly newIndexer = (IndexerInvertedDoconly) is
-        .readObject();
-    is.close();
-
-    this.totalTermFrequency = newIndexer.totalTermFrequency;
-    this._totalTermFrequency = this.totalTermFrequency;
-    this._documents = newIndexer._documents;
-    this._docTermOffset = newIndexer._docTermOffset;
-    this._termList = newIndexer._termList;
-    this._numDocs = _documents.size();
+    if (!new File(manifestFile).exists() && new File(indexFile).exists()) {
+      migrateIndex();
+    }
+    System.out.println("Load index from: " + manifestFile);
+    _manifest = IndexManifest.load(manifestFile);
+    this._totalTermFrequency = _manifest.totalTermFrequency();
+    this._numDocs = _manifest.numDocs();
+    this._documents = null;
+    this._docTermOffset = null;
+    this._termList = null;
     this._diskLength = null;
     this._pageRanks = null;
     this._numViews = null;
@@ -397,8 +391,8 @@ public class IndexerInvertedDoconly extends Indexer implements Serializable {
 
     DataInputStream reader = new DataInputStream(new BufferedInputStream(
         new FileInputStream(diskIndexFile)));
-    for (String str : _termList) {
-      _diskIndex.put(str, reader.readInt());
+    for (int i = 0; i < _manifest.numTerms(); i++) {
+      _diskIndex.put(_manifest.term(i), reader.readInt());
     }
     reader.close();
     // Loading each size of the term posting list.
@@ -406,157 +400,78 @@ public class IndexerInvertedDoconly extends Indexer implements Serializable {
         + "with " + Long.toString(_totalTermFrequency) + " terms!");
   }
 
+  // Index directories written before the manifest only have the serialized
+  // indexer object, convert it once.
+  private void migrateIndex() throws IOException, ClassNotFoundException {
+    System.out.println("Migrate " + indexFile + " to " + manifestFile);
+    ObjectInputStream is = new ObjectInputStream(new BufferedInputStream(
+        new FileInputStream(indexFile)));
+    IndexerInvertedDoconly oldIndexer = (IndexerInvertedDoconly) is
+        .readObject();
+    is.close();
+    IndexManifest.write(manifestFile, IndexManifest.KIND_INDEXED,
+        oldIndexer._documents, oldIndexer._termList,
+        oldIndexer._docTermOffset, oldIndexer.totalTermFrequency);
+  }
+
   @Override
   public Document getDoc(int docid) {
-    return (docid >= _documents.size() || docid < 0) ? null : _documents
-        .get(docid);
+    return _manifest.getDoc(docid);
   }
 
   /**
    * In HW2, you should be using {@link DocumentIndexed}
+   *
+   * Every call opens a new cursor, rankers iterate through
+   * {@link #getQueryCursor(Query)} instead.
    */
   @Override
   public Document nextDoc(Query query, int docid) {
-
     if (query == null) {
       return null;
     }
-
-    // If the requesting query is not equal to current query, load the
-    // corresponding
-    // posting lists for the terms in to querylist as a cache.
-    if (!currentQuery.equals(query._query)) {
-      currentQuery = query._query;
-      loadQueryList(query);
-    }
-    Boolean isResult = new Boolean(true);
-    while ((docid = getNextDocID(query, docid, isResult)) != -1) {
-      if (isResult) {
-        return getDoc(docid);
-      }
-    }
-    return null;
+    return getQueryCursor(query).nextDoc(docid);
   }
 
-  private int getNextDocID(Query query, int docid, Boolean isEqual) {
-    List<Integer> docids = new ArrayList<Integer>();
-    Vector<String> terms = ((QueryPhrase) query).getUniqTermVector();
-    for (String term : terms) {
-      int id = next(term, docid);
-      if (id == -1) {
-        return -1;
-      }
-      docids.add(id);
-    }
-    if (docids.size() == 0) {
-      return -1;
-    }
-
-    int result = docids.get(0);
-    int max = result;
-    isEqual = true;
-    for (int i = 1; i < docids.size(); i++) {
-      int id = docids.get(i);
-      if (id != result) {
-        isEqual = false;
-      }
-      if (id > max) {
-        max = id;
-      }
-    }
-
-    if (isEqual) {
-      return result;
-
-    } else {
-      return max - 1;
-    }
+  @Override
+  public QueryCursor getQueryCursor(Query query) {
+    return new InvertedQueryCursor(this, query);
   }
 
-  private void loadQueryList(Query query) {
-    _postingLists.clear();
-    Vector<String> terms = ((QueryPhrase) query).getUniqTermVector();
-    for (String term : terms) {
-      if (_diskIndex.containsKey(term)) {
-        if (!_postingLists.containsKey(_diskIndex.get(term))) {
-          _postingLists.put(_diskIndex.get(term), getTermList(term));
-          if (_postingLists.size() >= CACHE_SIZE) {
-            return;
-          }
-        }
-      }
-    }
-
+  @Override
+  PostingIterator getPostingIterator(String term) {
+    PostingList list = getTermList(term);
+    return list == null ? null : new PostingListIterator(list, false);
   }
 
-  private List<Integer> getTermList(String term) {
+  private PostingList getTermList(String term) {
     if (!_diskIndex.containsKey(term)) {
       return null;
     }
-    if (_postingLists.containsKey(_diskIndex.get(term))) {
-      return _postingLists.get(_diskIndex.get(term));
-    } else {
-      List<Integer> list = getTermListFromDisk(term);
-      _postingLists.put(_diskIndex.get(term), list);
-      if (_postingLists.size() > CACHE_SIZE) {
-        _postingLists.clear();
-      }
-      return list;
-    }
+    return getTermListFromDisk(term);
   }
 
   // Given a term, load term list from disk
-  private List<Integer> getTermListFromDisk(String term) {
-    List<Integer> list = new ArrayList<Integer>();
+  private PostingList getTermListFromDisk(String term) {
+    int[] list = new int[0];
     int offset = _diskIndex.get(term);
     try {
       RandomAccessFile raf = new RandomAccessFile(postingListFile, "r");
-      DataInputStream reader = new DataInputStream(new BufferedInputStream(
-          new FileInputStream(raf.getFD())));
-      raf.seek(offset * 4);
-      int size = reader.readInt();
-      for (int i = 0; i < size; i++) {
-        list.add((reader.readInt()));
-      }
+      raf.seek(offset * 4L);
+      byte[] bytes = new byte[raf.readInt() * 4];
+      raf.readFully(bytes);
       raf.close();
-      reader.close();
+      list = new int[bytes.length / 4];
+      ByteBuffer.wrap(bytes).asIntBuffer().get(list);
     } catch (Exception e) {
       e.printStackTrace();
     }
-    return list;
-  }
-
-  private int next(String term, int docid) {
-    List<Integer> list = getTermList(term);
-    if (list == null) {
-      return -1;
-    }
-    int size = list.size() / 2;
-    if (list.get((size - 1) * 2) <= docid) {
-      return -1;
-    }
-    return list.get(binarySearchForNext(list, 0, size - 1, docid));
-  }
-
-  // binary search algorithm for "next" method, slightly different than normal
-  // binary searh.
-  private int binarySearchForNext(List<Integer> li, int low, int high,
-      int docid) {
-    int mid = 0;
-    while (high - low > 1) {
-      mid = (low + high) / 2;
-      if (li.get(mid * 2) <= docid) {
-        low = mid;
-      } else {
-        high = mid;
-      }
-    }
-    return high * 2;
+    return new PostingList(list, list.length);
   }
 
   @Override
   public int corpusDocFrequencyByTerm(String term) {
-    List<Integer> list = getTermList(term);
+    PostingList list = getTermList(term);
     if (list == null) {
       return 0;
     } else {
@@ -566,8 +481,7 @@ public class IndexerInvertedDoconly extends Indexer implements Serializable {
 
   @Override
   public int corpusTermFrequency(String term) {
-    // check whether the term is in postingLists, if not load from disk
-    List<Integer> list = getTermList(term);
+    PostingList list = getTermList(term);
     if (list == null) {
       return 0;
     } else {
@@ -579,57 +493,22 @@ public class IndexerInvertedDoconly extends Indexer implements Serializable {
     }
   }
 
-  // Binary search for documentTermFrequency method, which is a standard binary
-  // search
-  private int binarySearchForDoc(List<Integer> list, int low, int high,
-      int docid) {
-    int mid;
-    while (low <= high) {
-      mid = (low + high) / 2;
-      if (list.get(mid * 2) == docid) {
-        return mid * 2;
-      } else if (list.get(mid * 2) > docid) {
-        high = mid - 1;
-      } else {
-        low = mid + 1;
-      }
-    }
-    return -1;
-  }
-
   @Override
   public int documentTermFrequency(String term, int docid) {
-    // check whether the term is in postingLists, if not load from disk
-    List<Integer> list = null;
-    if (!currentTerm.equals(term)) {
-      list = getTermList(term);
-      cacheTermList = list;
-      currentTerm = term;
-    } else {
-      list = cacheTermList;
-    }
-    if (list == null) {
+    PostingIterator iterator = getPostingIterator(term);
+    if (iterator == null || iterator.next(docid - 1) != docid) {
       return 0;
-    } else {
-      if (list.get(list.size() - 2) < docid) {
-        return 0;
-      }
-      int result = binarySearchForDoc(list, 0, list.size() - 1, docid);
-      if (result == -1) {
-        return 0;
-      } else {
-        return list.get(result + 1);
-      }
     }
+    return iterator.frequency();
   }
 
   @Override
   public Map<String, Integer> getDocTermMap(int docid) {
     int offset = 0;
     if (docid != 0) {
-      offset = _docTermOffset.get(docid - 1);
+      offset = _manifest.docTermOffset(docid - 1);
     }
-    int size = _docTermOffset.get(docid) - offset;
+    int size = _manifest.docTermOffset(docid) - offset;
     Map<String, Integer> map = new HashMap<String, Integer>();
     try {
       RandomAccessFile raf = new RandomAccessFile(docTermFile, "r");
@@ -637,7 +516,7 @@ public class IndexerInvertedDoconly extends Indexer implements Serializable {
           new FileInputStream(raf.getFD())));
       raf.seek(offset * 8);
       for (int i = 0; i < size; i++) {
-        map.put(_termList.get(reader.readInt()), reader.readInt());
+        map.put(_manifest.term(reader.readInt()), reader.readInt());
       }
       raf.close();
       reader.close();
@@ -12,16 +12,15 @@ import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.IOException;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.io.RandomAccessFile;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Scanner;
-import java.util.Vector;
 
 import org.jsoup.Jsoup;
 
@@ -34,12 +33,10 @@ public class IndexerInvertedOccurrence extends Indexer implements Serializable {
 
   private static final long serialVersionUID = -4516219082721025281L;
 
-  private static final transient int CACHE_SIZE = 10;
   private static final transient int PARTIAL_SIZE = 205;
 
   /** ---- Private instances ---- */
-  private transient Map<Integer, List<Integer>> _postingLists = new HashMap<Integer, List<Integer>>();
-  private transient Map<Integer, Integer> cacheIndex = null;
+  private transient Map<Integer, PostingList.Builder> _postingBuilders = new HashMap<Integer, PostingList.Builder>();
   private transient Map<String, Integer> _numViews = new HashMap<String, Integer>();
   private transient Map<String, Float> _pageRanks = new HashMap<String, Float>();
   private transient List<Integer> _diskLength = new ArrayList<Integer>();
@@ -49,15 +46,12 @@ public class IndexerInvertedOccurrence extends Indexer implements Serializable {
   private transient Map<Integer, Integer> docTermMap = new HashMap<Integer, Integer>();
 
   // Cache current running query
-  private transient String currentQuery = "";
-  private transient String currentTerm = "";
   private transient String indexFile = "";
+  private transient String manifestFile = "";
   private transient String diskIndexFile = "";
   private transient String docTermFile = "";
   private transient String postingListFile = "";
   private transient int partNumber = 0;
-  private transient int cacheTermListIndex = 0;
-  private transient List<Integer> cacheTermList;
   private transient DataOutputStream docTermWriter;
 
   // doc term list offset
@@ -65,6 +59,8 @@ public class IndexerInvertedOccurrence extends Indexer implements Serializable {
 
   // Store all the documents
   private List<Document> _documents = new ArrayList<Document>();
+  // documents, terms and doc term offsets once loaded for serving
+  private transient IndexManifest _manifest = null;
 
   // store all the terms
   private List<String> _termList = new ArrayList<String>();
@@ -77,6 +73,7 @@ public class IndexerInvertedOccurrence extends Indexer implements Serializable {
   public IndexerInvertedOccurrence(Options options) {
     super(options);
     indexFile = _options._indexPrefix + "/corpus.object";
+    manifestFile = _options._indexPrefix + "/corpus.manifest";
     diskIndexFile = _options._indexPrefix + "/corpus.idx";
     docTermFile = _options._indexPrefix + "/corpus.docterm";
     postingListFile = _options._indexPrefix + "/corpus.list";
@@ -119,7 +116,7 @@ public class IndexerInvertedOccurrence extends Indexer implements Serializable {
           processDocument(file, _options._corpusPrefix);
           if (_numDocs % PARTIAL_SIZE == 0) {
             writeMapToDisk();
-            _postingLists.clear();
+            _postingBuilders.clear();
           }
         }
 
@@ -134,7 +131,7 @@ public class IndexerInvertedOccurrence extends Indexer implements Serializable {
             processDocument(file, _options._stackOverFlowPrefix);
             if (_numDocs % PARTIAL_SIZE == 0) {
               writeMapToDisk();
-              _postingLists.clear();
+              _postingBuilders.clear();
             }
           }
         }
@@ -144,7 +141,7 @@ public class IndexerInvertedOccurrence extends Indexer implements Serializable {
       throw new IOException("Corpus prefix is not a direcroty");
     }
     writeMapToDisk();
-    _postingLists.clear();
+    _postingBuilders.clear();
     writeIndexToDisk();
     _totalTermFrequency = totalTermFrequency;
     System.out.println("System time lapse: "
@@ -225,7 +222,7 @@ public class IndexerInvertedOccurrence extends Indexer implements Serializable {
   private int indexDocument(String document, int docid) {
     int offset = 0;
     Scanner s = new Scanner(document);
-    List<Integer> list = null;
+    PostingList.Builder list = null;
     Stemmer stemmer = new Stemmer();
     while (s.hasNext()) {
       String term = s.next();
@@ -238,17 +235,17 @@ public class IndexerInvertedOccurrence extends Indexer implements Serializable {
 
       // using _diskIndex as a dictionary, conver string to integer
       if (_diskIndex.containsKey(term)
-          && _postingLists.containsKey(_diskIndex.get(term))) {
-        list = _postingLists.get(_diskIndex.get(term));
+          && _postingBuilders.containsKey(_diskIndex.get(term))) {
+        list = _postingBuilders.get(_diskIndex.get(term));
         list.add(docid);
       } else {
         // Encounter a new term, add to posting lists
-        list = new ArrayList<Integer>();
+        list = new PostingList.Builder();
         list.add(docid);
         if (!_diskIndex.containsKey(term)) {
           _diskIndex.put(term, _diskIndex.size());
         }
-        _postingLists.put(_diskIndex.get(term), list);
+        _postingBuilders.put(_diskIndex.get(term), list);
       }
 
       // calculate each term frequency in document
@@ -286,21 +283,21 @@ public class IndexerInvertedOccurrence extends Indexer implements Serializable {
     String outputFile = _options._indexPrefix + "/corpuspart"
         + String.valueOf(partNumber) + ".list";
 
-    List<Integer> keyList = new ArrayList<Integer>(_postingLists.keySet());
+    List<Integer> keyList = new ArrayList<Integer>(_postingBuilders.keySet());
     Collections.sort(keyList);
     DataOutputStream writer = new DataOutputStream(new BufferedOutputStream(
         new FileOutputStream(outputFile)));
 
     for (Integer key : keyList) {
-      List<Integer> termList = _postingLists.get(key);
+      PostingList.Builder termList = _postingBuilders.get(key);
       // write the size of postings list
       writer.writeInt(key);
       writer.writeInt(termList.size());
-      for (Integer value : termList) {
-        writer.writeInt(value);
+      for (int k = 0; k < termList.size(); k++) {
+        writer.writeInt(termList.get(k));
       }
     }
-    _diskLength.add(_postingLists.size());
+    _diskLength.add(_postingBuilders.size());
     writer.close();
     partNumber++;
   }
@@ -312,7 +309,7 @@ public class IndexerInvertedOccurrence extends Indexer implements Serializable {
     for (int i = 0; i < dictionaryList.length; i++) {
       dictionaryList[i] = i;
     }
-    List<Integer> diskList = new ArrayList<Integer>();
+    PostingList.Builder diskList = new PostingList.Builder();
     int[] index = new int[partNumber];
     int[] diskTerms = new int[partNumber];
     int[] termSizes = new int[partNumber];
@@ -352,8 +349,8 @@ public class IndexerInvertedOccurrence extends Indexer implements Serializable {
       }
 
       writer.writeInt(diskList.size());
-      for (Integer value : diskList) {
-        writer.writeInt(value);
+      for (k = 0; k < diskList.size(); k++) {
+        writer.writeInt(diskList.get(k));
       }
 
       writer2.writeInt(offset);
@@ -376,37 +373,31 @@ public class IndexerInvertedOccurrence extends Indexer implements Serializable {
       _termList.add(tempMap.get(i));
     }
     tempMap = null;
-    ObjectOutputStream os = new ObjectOutputStream(new BufferedOutputStream(
-        new FileOutputStream(indexFile)));
-    os.writeObject(this);
-    os.close();
+    IndexManifest.write(manifestFile, IndexManifest.KIND_INDEXED, _documents,
+        _termList, _docTermOffset, totalTermFrequency);
   }
 
   @Override
   public void loadIndex() throws IOException, ClassNotFoundException {
-    System.out.println("Load index from: " + indexFile);
-    ObjectInputStream is = new ObjectInputStream(new BufferedInputStream(
-        new FileInputStream(indexFile)));
-    IndexerInvertedOccurrence newIndexer = (IndexerInvertedOccurrence) is
-        .readObject();
-    is.close();
-
-    this.totalTermFrequency = newIndexer.totalTermFrequency;
-    this._totalTermFrequency = this.totalTermFrequency;
-    this._documents = newIndexer._documents;
-    this._docTermOffset = newIndexer._docTermOffset;
-    this._termList = newIndexer._termList;
-    this._numDocs = _documents.size();
+    if (!new File(manifestFile).exists() && new File(indexFile).exists()) {
+      migrateIndex();
+    }
+    System.out.println("Load index from: " + manifestFile);
+    _manifest = IndexManifest.load(manifestFile);
+    this._totalTermFrequency = _manifest.totalTermFrequency();
+    this._numDocs = _manifest.numDocs();
+    this._documents = null;
+    this._docTermOffset = null;
+    this._termList = null;
     this._diskLength = null;
     this._pageRanks = null;
     this._numViews = null;
     this.docTermMap = null;
 
-    cacheIndex = new HashMap<Integer, Integer>();
     DataInputStream reader = new DataInputStream(new BufferedInputStream(
         new FileInputStream(diskIndexFile)));
-    for (String str : _termList) {
-      _diskIndex.put(str, reader.readInt());
+    for (int i = 0; i < _manifest.numTerms(); i++) {
+      _diskIndex.put(_manifest.term(i), reader.readInt());
     }
     reader.close();
 
@@ -415,254 +406,86 @@ public class IndexerInvertedOccurrence extends Indexer implements Serializable {
         + "with " + Long.toString(_totalTermFrequency) + " terms!");
   }
 
+  // Index directories written before the manifest only have the serialized
+  // indexer object, convert it once.
+  private void migrateIndex() throws IOException, ClassNotFoundException {
+    System.out.println("Migrate " + indexFile + " to " + manifestFile);
+    ObjectInputStream is = new ObjectInputStream(new BufferedInputStream(
+        new FileInputStream(indexFile)));
+    IndexerInvertedOccurrence oldIndexer = (IndexerInvertedOccurrence) is
+        .readObject();
+    is.close();
+    IndexManifest.write(manifestFile, IndexManifest.KIND_INDEXED,
+        oldIndexer._documents, oldIndexer._termList,
+        oldIndexer._docTermOffset, oldIndexer.totalTermFrequency);
+  }
+
   @Override
   public Document getDoc(int docid) {
-    return (docid >= _documents.size() || docid < 0) ? null : _documents
-        .get(docid);
+    return _manifest.getDoc(docid);
   }
 
   /**
    * In HW2, you should be using {@link DocumentIndexed}
+   *
+   * Every call opens a new cursor, rankers iterate through
+   * {@link #getQueryCursor(Query)} instead.
    */
   @Override
   public Document nextDoc(Query query, int docid) {
     if (query == null) {
       return null;
     }
+    return getQueryCursor(query).nextDoc(docid);
+  }
 
-    // If enconter a new query, load all the postings list into memory
-    // of the term in query
-    if (!currentQuery.equals(query._query)) {
-      currentQuery = query._query;
-      loadQueryList(query);
-    }
-    while (true) {
-      boolean found = true;
-      // get next document contain all terms
-      int docCandidate = nextContainAllDocument(query, docid);
-      if (docCandidate == -1) {
-        return null;
-      }
-
-      // check whether meet phrase restrain
-      Vector<String> phrases = query._tokens;
-      for (String phrase : phrases) {
-        String[] terms = phrase.trim().split(" +");
-        if (terms.length != 1) {
-          if (!containPhrase(terms, docCandidate)) {
-            found = false;
-            break;
-          }
-        }
-      }
-      if (found) {
-        return getDoc(docCandidate);
-      }
-      docid = docCandidate;
-    }
+  @Override
+  public QueryCursor getQueryCursor(Query query) {
+    return new InvertedQueryCursor(this, query);
   }
 
-  /* load all the postings lists into memory */
-  private void loadQueryList(Query query) {
-    _postingLists.clear();
-    cacheIndex.clear();
-    Vector<String> terms = ((QueryPhrase) query).getUniqTermVector();
-    for (String term : terms) {
-      if (_diskIndex.containsKey(term)) {
-        if (!_postingLists.containsKey(_diskIndex.get(term))) {
-          _postingLists.put(_diskIndex.get(term), getTermList(term));
-          cacheIndex.put(_diskIndex.get(term), 0);
-          if (_postingLists.size() >= CACHE_SIZE) {
-            return;
-          }
-        }
-      }
-    }
+  @Override
+  PostingIterator getPostingIterator(String term) {
+    PostingList list = getTermList(term);
+    return list == null ? null : new PostingListIterator(list, true);
   }
 
   /**
-   * Gets the term list from memory, or from disk when not in memory. If not in
-   * disk either, return null
+   * Gets the term list from disk. If not in disk, return null
    * 
    * @param term
    * @return
    */
-  private List<Integer> getTermList(String term) {
+  private PostingList getTermList(String term) {
     if (!_diskIndex.containsKey(term)) {
       return null;
     }
-    if (_postingLists.containsKey(_diskIndex.get(term))) {
-      return _postingLists.get(_diskIndex.get(term));
-    } else {
-      List<Integer> list = getTermListFromDisk(term);
-      _postingLists.put(_diskIndex.get(term), list);
-      if (_postingLists.size() > CACHE_SIZE) {
-        _postingLists.clear();
-      }
-      return list;
-    }
+    return getTermListFromDisk(term);
   }
 
   // Given a term, load term list from disk
-  private List<Integer> getTermListFromDisk(String term) {
-    List<Integer> list = new ArrayList<Integer>();
+  private PostingList getTermListFromDisk(String term) {
+    int[] list = new int[0];
     int offset = _diskIndex.get(term);
     try {
       RandomAccessFile raf = new RandomAccessFile(postingListFile, "r");
-      DataInputStream reader = new DataInputStream(new BufferedInputStream(
-          new FileInputStream(raf.getFD())));
-      raf.seek(offset * 4);
-      int size = reader.readInt();
-      for (int i = 0; i < size; i++) {
-        list.add((reader.readInt()));
-      }
+      raf.seek(offset * 4L);
+      byte[] bytes = new byte[raf.readInt() * 4];
+      raf.readFully(bytes);
       raf.close();
-      reader.close();
+      list = new int[bytes.length / 4];
+      ByteBuffer.wrap(bytes).asIntBuffer().get(list);
     } catch (Exception e) {
       e.printStackTrace();
     }
-    return list;
-  }
-
-  /**
-   * Returns the next document id in which contains all tokens from query.
-   * Returns -1 if no qualified document exists.
-   * 
-   * @param query
-   * @param docid
-   * @return
-   */
-  private int nextContainAllDocument(Query query, int docid) {
-    while (true) {
-      boolean isEqual = true;
-      List<Integer> docids = new ArrayList<Integer>();
-      Vector<String> terms = ((QueryPhrase) query).getUniqTermVector();
-
-      for (String term : terms) {
-        int d = next(term, docid);
-        if (d == -1)
-          return -1;
-        docids.add(d);
-      }
-      if (docids.size() == 0) {
-        return -1;
-      }
-      int result = docids.get(0);
-      for (int i = 1; i < docids.size(); i++) {
-        int id = docids.get(i);
-        if (result != id) {
-          // jump to next docid
-          isEqual = false;
-          break;
-        }
-      }
-      if (isEqual) {
-        return result;
-      }
-      docid = Collections.max(docids) - 1;
-
-    }
-  }
-
-  /**
-   * Returns document id after the given document id Returns -1 if no document
-   * left to search
-   * 
-   * @param term
-   * @param docid
-   * @return
-   */
-  private int next(String term, int docid) {
-
-    List<Integer> list = getTermList(term);
-    if (list == null) {
-      return -1;
-    }
-    // get cache position of the list
-    int cache = cacheIndex.get(_diskIndex.get(term));
-    if (list.size() == 0 || list.get(list.size() - 2) <= docid) {
-      return -1;
-    }
-    if (list.get(0) > docid) {
-      cacheIndex.put(_diskIndex.get(term), 0);
-      return list.get(0);
-    }
-
-    if (cache > 0) {
-      int current = list.get(cache);
-      int i = cache;
-      while (i >= 0 && list.get(i) == current) {
-        i = i - 2;
-      }
-      if (list.get(i) > docid) {
-        cache = 0;
-      }
-    }
-    while (list.get(cache) <= docid) {
-      cache = cache + 2;
-    }
-    cacheIndex.put(_diskIndex.get(term), cache);
-    return list.get(cache);
-  }
-
-  // terms at least contain 2 words
-  private boolean containPhrase(String[] terms, int docid) {
-    int pos = -1;
-    // position == -1 indicate has searched to the end of the document
-    while (true) {
-      boolean contains = true;
-      List<Integer> positions = new ArrayList<Integer>();
-
-      for (String term : terms) {
-        int p = nextPos(term, docid, pos);
-        if (p == -1) {
-          return false;
-        }
-        positions.add(p);
-      }
-
-      int p1 = positions.get(0);
-      for (int i = 1; i < positions.size(); i++) {
-        int p2 = positions.get(i);
-        if ((p1 + 1) != p2) {
-          contains = false;
-          break;
-        }
-        p1 = p2;
-      }
-      // if found
-      if (contains) {
-        return contains;
-      }
-      pos = Collections.min(positions);
-    }
-  }
-
-  // return next occurrence of word in document after current position
-  private int nextPos(String word, int docid, int pos) {
-    List<Integer> list = getTermList(word);
-    if (list == null || list.size() == 0 || list.get(list.size() - 1) <= pos) {
-      return -1;
-    }
-
-    int cache = cacheIndex.get(_diskIndex.get(word));
-    int p = 0;
-    while (list.get(cache) == docid) {
-      p = list.get(cache + 1);
-      if (p > pos) {
-        return p;
-      }
-      cache = cache + 2;
-    }
-    return -1;
+    return new PostingList(list, list.length);
   }
 
   @Override
   // Number of documents in which {@code term} appeared, over the full
   // corpus.
   public int corpusDocFrequencyByTerm(String term) {
-    // check whether the term is in postingLists, if not load from disk
-    List<Integer> list = getTermList(term);
+    PostingList list = getTermList(term);
     if (list == null) {
       return 0;
     }
@@ -680,101 +503,39 @@ public class IndexerInvertedOccurrence extends Indexer implements Serializable {
   @Override
   // Number of times {@code term} appeared in corpus.
   public int corpusTermFrequency(String term) {
-    // check whether the term is in postingLists, if not load from disk
     if (!_diskIndex.containsKey(term)) {
       return 0;
     }
-    if (_postingLists.containsKey(_diskIndex.get(term))) {
-      return _postingLists.get(_diskIndex.get(term)).size() / 2;
-    } else {
-      int offset = _diskIndex.get(term);
-      int size = 0;
-      try {
-        RandomAccessFile raf = new RandomAccessFile(postingListFile, "r");
-        DataInputStream reader = new DataInputStream(new BufferedInputStream(
-            new FileInputStream(raf.getFD())));
-        raf.seek(offset * 4);
-        size = reader.readInt();
-        raf.close();
-        reader.close();
-      } catch (Exception e) {
-        e.printStackTrace();
-      }
-      return size / 2;
+    // only the size header is needed
+    int offset = _diskIndex.get(term);
+    int size = 0;
+    try {
+      RandomAccessFile raf = new RandomAccessFile(postingListFile, "r");
+      raf.seek(offset * 4L);
+      size = raf.readInt();
+      raf.close();
+    } catch (Exception e) {
+      e.printStackTrace();
     }
+    return size / 2;
   }
 
   @Override
   public int documentTermFrequency(String term, int docid) {
-    // check whether the term is in postingLists, if not load from disk
-    List<Integer> list = null;
-    int cache = 0;
-    if (_postingLists.containsKey(_diskIndex.get(term))) {
-      list = _postingLists.get(_diskIndex.get(term));
-      cache = cacheIndex.get(_diskIndex.get(term));
-    } else {
-      if (!currentTerm.equals(term)) {
-        list = getTermList(term);
-        cacheTermList = list;
-        currentTerm = term;
-        cacheTermListIndex = 0;
-      } else {
-        list = cacheTermList;
-        cache = cacheTermListIndex;
-      }
-    }
-    if (list == null) {
-      return 0;
-    }
-    int result = 0;
-    if (list.get(list.size() - 2) < docid) {
+    PostingIterator iterator = getPostingIterator(term);
+    if (iterator == null || iterator.next(docid - 1) != docid) {
       return 0;
     }
-    if (cache == list.size()) {
-      cache = 0;
-    }
-    if (cache > 0) {
-      int current = list.get(cache);
-      int i = cache;
-      while (i >= 0 && list.get(i) == current) {
-        i = i - 2;
-      }
-      if (list.get(i) >= docid) {
-        cache = 0;
-      } else if (list.get(i) == docid) {
-        while (i >= 0 && list.get(i) == docid) {
-          i = i - 2;
-        }
-        if (i == 0) {
-          cache = i;
-        } else {
-          cache = i + 2;
-        }
-      }
-    }
-    for (; cache < list.size(); cache = cache + 2) {
-      if (docid == list.get(cache)) {
-        result++;
-      }
-      if (list.get(cache) > docid) {
-        break;
-      }
-    }
-    if (_postingLists.containsKey(_diskIndex.get(term))) {
-      cacheIndex.put(_diskIndex.get(term), cache);
-    } else {
-      cacheTermListIndex = cache;
-    }
-    return result;
+    return iterator.frequency();
   }
 
   @Override
   public Map<String, Integer> getDocTermMap(int docid) {
     int offset = 0;
     if (docid != 0) {
-      offset = _docTermOffset.get(docid - 1);
+      offset = _manifest.docTermOffset(docid - 1);
     }
-    int size = _docTermOffset.get(docid) - offset;
+    int size = _manifest.docTermOffset(docid) - offset;
     Map<String, Integer> map = new HashMap<String, Integer>();
     try {
       RandomAccessFile raf = new RandomAccessFile(docTermFile, "r");
@@ -782,7 +543,7 @@ public class IndexerInvertedOccurrence extends Indexer implements Serializable {
           new FileInputStream(raf.getFD())));
       raf.seek(offset * 8);
       for (int i = 0; i < size; i++) {
-        map.put(_termList.get(reader.readInt()), reader.readInt());
+        map.put(_manifest.term(reader.readInt()), reader.readInt());
       }
       raf.close();
       reader.close();
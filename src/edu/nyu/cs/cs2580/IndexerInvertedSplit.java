@@ -0,0 +1,106 @@
+package edu.nyu.cs.cs2580;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+import edu.nyu.cs.cs2580.SearchEngine.Options;
+
+/**
+ * Compressed inverted index that keeps postings and positions apart, see
+ * {@link SplitPostingIterator} for the layout.
+ *
+ * Documents are parsed and the partial lists merged exactly like
+ * {@link IndexerInvertedCompressed}, only the final lists are written
+ * differently: corpus.docs holds one (docid gap, tf) entry per document and
+ * corpus.pos the positions. Bag-of-words queries read corpus.docs only,
+ * corpus.pos is touched when a phrase has to be checked.
+ */
+public class IndexerInvertedSplit extends IndexerInvertedCompressed {
+
+  private static final long serialVersionUID = -3187472634521907783L;
+
+  private transient String positionFile = "";
+
+  // offsets of each term id in corpus.docs and corpus.pos, one extra entry
+  // holds the length of corpus.pos
+  private transient long[] _listOffsets = null;
+  private transient long[] _positionOffsets = null;
+  private transient MappedPostingFile _postingFile = null;
+  private transient MappedPostingFile _positionFile = null;
+
+  public IndexerInvertedSplit() {
+  }
+
+  public IndexerInvertedSplit(Options options) {
+    super(options);
+    postingListFile = _options._indexPrefix + "/corpus.docs";
+    positionFile = _options._indexPrefix + "/corpus.pos";
+  }
+
+  // The blocks here hold BLOCK_SIZE documents, not postings.
+  @Override
+  protected boolean writesBlockBounds() {
+    return false;
+  }
+
+  @Override
+  protected TermListWriter newTermListWriter(String suffix)
+      throws IOException {
+    return new SplitListWriter(suffix);
+  }
+
+  // Postings to corpus.docs, positions to corpus.pos.
+  private class SplitListWriter extends TermListWriter {
+    private final ByteArrayOutputStream listBuffer = new ByteArrayOutputStream();
+    private final ByteArrayOutputStream positionBuffer = new ByteArrayOutputStream();
+
+    SplitListWriter(String suffix) throws IOException {
+      super(new String[] { postingListFile, positionFile }, suffix);
+    }
+
+    @Override
+    protected int writeList(TermPostings postings) throws IOException {
+      listBuffer.reset();
+      positionBuffer.reset();
+      SplitPostingIterator.encode(postings.pairs(), listBuffer,
+          positionBuffer);
+      listBuffer.writeTo(_streams[0]);
+      positionBuffer.writeTo(_streams[1]);
+      _sizes[0] += listBuffer.size();
+      _sizes[1] += positionBuffer.size();
+      return listBuffer.size();
+    }
+  }
+
+  @Override
+  protected void loadTermLists() throws IOException {
+    int terms = _dictionary.size();
+    _listOffsets = new long[terms];
+    _positionOffsets = new long[terms + 1];
+    DataInputStream reader = new DataInputStream(new BufferedInputStream(
+        new FileInputStream(diskIndexFile)));
+    for (int i = 0; i < terms; i++) {
+      _listOffsets[i] = reader.readLong();
+      _positionOffsets[i] = reader.readLong();
+    }
+    reader.close();
+    _positionOffsets[terms] = new File(positionFile).length();
+    _postingFile = new MappedPostingFile(postingListFile);
+    _positionFile = new MappedPostingFile(positionFile);
+  }
+
+  @Override
+  PostingIterator getPostingIterator(String term) {
+    int id = _dictionary.termId(term);
+    if (id < 0) {
+      return null;
+    }
+    long start = _positionOffsets[id];
+    return new SplitPostingIterator(_postingFile.getList(_listOffsets[id]),
+        _positionFile.slice(start, (int) (_positionOffsets[id + 1] - start)));
+  }
+}
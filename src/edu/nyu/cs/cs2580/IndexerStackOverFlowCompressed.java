@@ -2,6 +2,8 @@ package edu.nyu.cs.cs2580;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.File;
@@ -10,19 +12,20 @@ import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.io.RandomAccessFile;
 import java.io.Serializable;
+import java.io.UTFDataFormatException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Scanner;
-import java.util.Vector;
 
 import org.jsoup.Jsoup;
 import org.jsoup.nodes.Element;
+import org.jsoup.select.Elements;
 
 import edu.nyu.cs.cs2580.SearchEngine.Options;
 
@@ -37,35 +40,44 @@ public class IndexerStackOverFlowCompressed extends Indexer implements
     Serializable {
 
   private static final long serialVersionUID = 47542898854666350L;
-  protected static final transient int CACHE_SIZE = 50;
-  protected static final transient int PARTIAL_SIZE = 500;
   /** ---- Private instances ---- */
-  private transient Map<Integer, List<Integer>> _postingLists = new HashMap<Integer, List<Integer>>();
-  private transient Map<Integer, Integer> cacheIndex = null;
+  private transient Map<Integer, PostingList.Builder> _postingBuilders = new HashMap<Integer, PostingList.Builder>();
   private transient Map<String, Float> _pageRanks = new HashMap<String, Float>();
   private transient List<Integer> _diskLength = new ArrayList<Integer>();
-  // disk postings lists offset
+  // memory taken by _postingBuilders, a part is written once it is full
+  private transient PostingMemory _postingMemory = null;
+  // term to term id while indexing, the id indexes _termList and _listOffsets
   private transient Map<String, Integer> _diskIndex = new HashMap<String, Integer>();
+  // term to term id at serve time
+  private transient TermDictionary _dictionary = null;
+  // disk postings lists offset of each term id
+  private transient long[] _listOffsets = null;
+  // stack.list mapped into memory at serve time
+  private transient MappedPostingFile _postingFile = null;
+  // df, cf and list length of each term id
+  private transient Lexicon _lexicon = null;
 
-  // Cache current running query
-  private transient String currentQuery = "";
-  private transient String currentTerm = "";
   private transient String indexFile = "";
+  private transient String manifestFile = "";
   private transient String diskIndexFile = "";
   private transient String docTermFile = "";
   private transient String postingListFile = "";
-  private transient int cacheTermListIndex = 0;
+  private transient String lexiconFile = "";
+  private transient String dictionaryFile = "";
   private transient int partNumber = 0;
-  private transient List<Integer> cacheTermList;
 
   // outputstream to write uniq terms of a doc to disks
   private transient DataOutputStream docTermWriter;
+  // when startIndex() was called
+  private transient long _start = 0;
 
   // doc term list offset
   private List<Integer> _docTermOffset = new ArrayList<Integer>();
 
   // Store all the documents
   private List<Document> _documents = new ArrayList<Document>();
+  // documents, terms and doc term offsets once loaded for serving
+  private transient IndexManifest _manifest = null;
 
   // store all the terms
   private List<String> _termList = new ArrayList<String>();
@@ -78,44 +90,71 @@ public class IndexerStackOverFlowCompressed extends Indexer implements
   public IndexerStackOverFlowCompressed(Options options) {
     super(options);
     indexFile = _options._indexPrefix + "/stack.object";
+    manifestFile = _options._indexPrefix + "/stack.manifest";
     diskIndexFile = _options._indexPrefix + "/stack.idx";
     docTermFile = _options._indexPrefix + "/stack.docterm";
     postingListFile = _options._indexPrefix + "/stack.list";
+    lexiconFile = _options._indexPrefix + "/stack.lexicon";
+    dictionaryFile = _options._indexPrefix + "/stack.dict";
     System.out.println("Using Indexer: " + this.getClass().getSimpleName());
   }
 
-  @SuppressWarnings("unchecked")
   @Override
   public void constructIndex() throws IOException {
+    startIndex();
+    DocumentSource source = DocumentSource.open(_options._stackOverFlowPrefix);
+    System.out.println("Construct index from: " + source.getPrefix());
+    try {
+      while (source.next()) {
+        addDocument(source.name(), source.content());
+      }
+    } finally {
+      source.close();
+    }
+    finishIndex();
+  }
+
+  /**
+   * The steps of {@link #constructIndex} for a caller that reads the stack
+   * overflow corpus itself, --mode=build feeds it from its shared scan.
+   */
+  void startIndex() throws IOException {
     // delete already existing index files
     deleteExistingFiles();
-    long start = System.currentTimeMillis();
+    _start = System.currentTimeMillis();
+    docTermWriter = new DataOutputStream(new BufferedOutputStream(
+        new FileOutputStream(docTermFile)));
+    _postingMemory = new PostingMemory(_options._indexMemoryBudget);
+  }
+
+  void addDocument(String fileName, byte[] content) throws IOException {
+    processDocument(fileName, content);
+    if (_postingMemory.isFull()) {
+      writeMapToDisk();
+      _postingBuilders.clear();
+      _postingMemory.reset();
+    }
+  }
+
+  // Needs the page ranks of the mining step.
+  @SuppressWarnings("unchecked")
+  void finishIndex() throws IOException {
+    docTermWriter.close();
+    writeMapToDisk();
+    _postingBuilders.clear();
     _pageRanks = (HashMap<String, Float>) CorpusAnalyzer.Factory
         .getCorpusAnalyzerByOption(_options).load();
-    File _stackOverFlowDir = new File(_options._stackOverFlowPrefix);
-    if (_stackOverFlowDir.isDirectory()) {
-      System.out.println("Construct index from: " + _stackOverFlowDir);
-      File[] allFiles = _stackOverFlowDir.listFiles();
-      // If corpus is in the corpus tsv file
-      docTermWriter = new DataOutputStream(new BufferedOutputStream(
-          new FileOutputStream(docTermFile)));
-      for (File file : allFiles) {
-        processDocument(file);
-        if (_numDocs % PARTIAL_SIZE == 0) {
-          writeMapToDisk();
-          _postingLists.clear();
-        }
+    for (Document document : _documents) {
+      if (_pageRanks.containsKey(document.getName())) {
+        document.setPageRank(_pageRanks.get(document.getName()));
+      } else {
+        document.setPageRank(0);
       }
-      docTermWriter.close();
-    } else {
-      throw new IOException("Corpus prefix is not a direcroty");
     }
-    writeMapToDisk();
-    _postingLists.clear();
     writeIndexToDisk();
     _totalTermFrequency = totalTermFrequency;
     System.out.println("System time lapse: "
-        + (System.currentTimeMillis() - start) + " milliseconds");
+        + (System.currentTimeMillis() - _start) + " milliseconds");
     System.out.println("Indexed " + Integer.toString(_numDocs) + " docs with "
         + Long.toString(_totalTermFrequency) + " terms.");
   }
@@ -134,9 +173,11 @@ public class IndexerStackOverFlowCompressed extends Indexer implements
   }
 
   // process document in corpus where each document is a file
-  private void processDocument(File file) throws IOException {
+  private void processDocument(String fileName, byte[] content)
+      throws IOException {
     // Use jsoup to parse html
-    org.jsoup.nodes.Document parsedDocument = Jsoup.parse(file, "UTF-8");
+    org.jsoup.nodes.Document parsedDocument = Jsoup.parse(
+        new ByteArrayInputStream(content), "UTF-8", "");
     String documentText = parsedDocument.title();
     // TODO Auto-generated catch block
     Element ele = parsedDocument.body().getElementsByClass("post-text")
@@ -150,24 +191,22 @@ public class IndexerStackOverFlowCompressed extends Indexer implements
     DocumentStackOverFlow document = new DocumentStackOverFlow(docid);
     // Indexing.
     int documentLength = indexDocument(documentText.toLowerCase(), docid);
-    // get answers and write into disk
+    // get answers and write into disk, an empty one for a question without
+    // an answer or with one too long to write, so every document has its
+    // offset
+    Elements posts = parsedDocument.body().getElementsByClass("post-text");
     try {
-      ele = parsedDocument.body().getElementsByClass("post-text").get(1);
-      if (ele != null) {
-        String answer = ele.text();
-        docTermWriter.writeUTF(answer);
-        docTermWriter.flush();
-        _docTermOffset.add(docTermWriter.size());
-      }
-    } catch (Exception e) {
-      e.printStackTrace();
+      docTermWriter.writeUTF(posts.size() > 1 ? posts.get(1).text() : "");
+    } catch (UTFDataFormatException e) {
+      docTermWriter.writeUTF("");
     }
+    docTermWriter.flush();
+    _docTermOffset.add(docTermWriter.size());
     document.setBaseUrl("stackoverflow.com/questions/");
-    document.setName(file.getName());
+    document.setName(fileName);
     document.setPathPrefix("data/stack");
     document.setTitle(parsedDocument.title());
     document.setLength(documentLength);
-    String fileName = file.getName();
 
     // get votes
     ele = parsedDocument.body().getElementsByClass("vote-count-post").first();
@@ -195,11 +234,6 @@ public class IndexerStackOverFlowCompressed extends Indexer implements
     } else {
       document.setNumViews(0);
     }
-    if (_pageRanks.containsKey(fileName)) {
-      document.setPageRank(_pageRanks.get(file.getName()));
-    } else {
-      document.setPageRank(0);
-    }
     _documents.add(document);
     ++_numDocs;
   }
@@ -208,7 +242,7 @@ public class IndexerStackOverFlowCompressed extends Indexer implements
   private int indexDocument(String document, int docid) {
     int offset = 0;
     Scanner s = new Scanner(document);
-    List<Integer> list = null;
+    PostingList.Builder list = null;
     Stemmer stemmer = new Stemmer();
     while (s.hasNext()) {
       String term = s.next();
@@ -220,20 +254,25 @@ public class IndexerStackOverFlowCompressed extends Indexer implements
       term = stemmer.toString();
 
       // using _diskIndex as a dictionary, conver string to integer
+      int capacity;
       if (_diskIndex.containsKey(term)
-          && _postingLists.containsKey(_diskIndex.get(term))) {
-        list = _postingLists.get(_diskIndex.get(term));
+          && _postingBuilders.containsKey(_diskIndex.get(term))) {
+        list = _postingBuilders.get(_diskIndex.get(term));
+        capacity = list.capacity();
         list.add(docid);
       } else {
         // Encounter a new term, add to posting lists
-        list = new ArrayList<Integer>();
+        list = new PostingList.Builder();
+        _postingMemory.added(list);
+        capacity = list.capacity();
         list.add(docid);
         if (!_diskIndex.containsKey(term)) {
           _diskIndex.put(term, _diskIndex.size());
         }
-        _postingLists.put(_diskIndex.get(term), list);
+        _postingBuilders.put(_diskIndex.get(term), list);
       }
       list.add(offset);
+      _postingMemory.grown(list, capacity);
       totalTermFrequency++;
       offset++;
     }
@@ -245,92 +284,63 @@ public class IndexerStackOverFlowCompressed extends Indexer implements
     String outputFile = _options._indexPrefix + "/stackpart"
         + String.valueOf(partNumber) + ".list";
 
-    List<Integer> keyList = new ArrayList<Integer>(_postingLists.keySet());
+    List<Integer> keyList = new ArrayList<Integer>(_postingBuilders.keySet());
     Collections.sort(keyList);
     DataOutputStream writer = new DataOutputStream(new BufferedOutputStream(
         new FileOutputStream(outputFile)));
-    List<Byte> byteList = new ArrayList<Byte>();
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
     for (Integer key : keyList) {
-      byteList.clear();
-      List<Integer> termList = _postingLists.get(key);
+      bytes.reset();
+      PostingList.Builder termList = _postingBuilders.get(key);
       writer.writeInt(key);
       for (int k = 0; k < termList.size(); k++) {
-        byte[] values = vByte(termList.get(k));
-        for (byte value : values) {
-          byteList.add(value);
-        }
-      }
-      writer.writeInt(byteList.size());
-      for (Byte value : byteList) {
-        writer.writeByte(value);
+        byte[] values = IndexerInvertedCompressed.vByte(termList.get(k));
+        bytes.write(values, 0, values.length);
       }
+      // write the size of postings list
+      writer.writeInt(bytes.size());
+      bytes.writeTo(writer);
     }
-    _diskLength.add(_postingLists.size());
+    _diskLength.add(_postingBuilders.size());
     writer.close();
     partNumber++;
   }
 
   private void writeIndexToDisk() throws FileNotFoundException, IOException {
-    int[] dictionaryList = new int[_diskIndex.size()];
-    for (int i = 0; i < dictionaryList.length; i++) {
-      dictionaryList[i] = i;
-    }
-
-    List<Byte> diskList = new ArrayList<Byte>();
-    List<Byte> byteList = new ArrayList<Byte>();
-    int[] index = new int[partNumber];
-    int[] diskTerms = new int[partNumber];
-    int[] termSizes = new int[partNumber];
-    int offset = 0;
-
-    File[] inputFiles = new File[partNumber];
-    DataInputStream[] readers = new DataInputStream[partNumber];
+    int terms = _diskIndex.size();
+    List<String> parts = new ArrayList<String>();
     for (int i = 0; i < partNumber; i++) {
-      inputFiles[i] = new File(_options._indexPrefix + "/stackpart"
-          + String.valueOf(i) + ".list");
-      readers[i] = new DataInputStream(new BufferedInputStream(
-          new FileInputStream(inputFiles[i])));
+      parts.add(_options._indexPrefix + "/stackpart" + String.valueOf(i)
+          + ".list");
     }
+    PostingRunMerger merger = new PostingRunMerger(parts, _diskLength);
+    ByteArrayOutputStream diskList = new ByteArrayOutputStream();
+    long offset = 0;
+
     DataOutputStream writer = new DataOutputStream(new BufferedOutputStream(
         new FileOutputStream(postingListFile)));
     DataOutputStream writer2 = new DataOutputStream(new BufferedOutputStream(
         new FileOutputStream(diskIndexFile)));
 
-    for (int i = 0; i < partNumber; i++) {
-      diskTerms[i] = readers[i].readInt();
-      termSizes[i] = readers[i].readInt();
-    }
-    int j = 0;
-    int k = 0;
-    for (int i = 0; i < dictionaryList.length; i++) {
-      for (j = 0; j < partNumber; j++) {
-        if (diskTerms[j] == dictionaryList[i]) {
-          for (k = 0; k < termSizes[j]; k++) {
-            diskList.add(readers[j].readByte());
-          }
-          index[j]++;
-          if (index[j] < _diskLength.get(j)) {
-            diskTerms[j] = readers[j].readInt();
-            termSizes[j] = readers[j].readInt();
-          }
-        }
-      }
+    Lexicon lexicon = new Lexicon(terms);
+    TermPostings postings = new TermPostings();
+    for (int i = 0; i < terms; i++) {
+      merger.copyTerm(i, diskList);
 
-      writer.writeInt(diskList.size());
-      for (Byte value : diskList) {
-        writer.writeByte(value);
-      }
-
-      writer2.writeInt(offset);
-      offset += (diskList.size() + 4);
-      diskList.clear();
-      byteList.clear();
+      // the final list carries a skip table ahead of the postings
+      postings.decode(diskList.toByteArray());
+      int length = SkipListPostingIterator.writeList(writer, postings);
+      lexicon.add(postings.documents(), postings.occurrences(), length);
+      writer2.writeLong(offset);
+      offset += length;
+      diskList.reset();
     }
     writer.close();
     writer2.close();
-    for (j = 0; j < partNumber; j++) {
-      readers[j].close();
-      inputFiles[j].delete();
+    merger.close();
+    lexicon.write(lexiconFile);
+    for (String part : parts) {
+      new File(part).delete();
     }
 
     Map<Integer, String> tempMap = new HashMap<Integer, String>();
@@ -342,310 +352,114 @@ public class IndexerStackOverFlowCompressed extends Indexer implements
     }
     tempMap = null;
 
-    ObjectOutputStream os = new ObjectOutputStream(new BufferedOutputStream(
-        new FileOutputStream(indexFile)));
-    os.writeObject(this);
-    os.close();
+    TermDictionary.write(dictionaryFile, _termList);
+    IndexManifest.write(manifestFile, IndexManifest.KIND_STACKOVERFLOW,
+        _documents, _termList, _docTermOffset, totalTermFrequency);
 
   }
 
   @Override
   public void loadIndex() throws IOException, ClassNotFoundException {
-    System.out.println("Load index from: " + indexFile);
-    ObjectInputStream is = new ObjectInputStream(new BufferedInputStream(
-        new FileInputStream(indexFile)));
-    IndexerStackOverFlowCompressed newIndexer = (IndexerStackOverFlowCompressed) is
-        .readObject();
-    is.close();
-
-    this.totalTermFrequency = newIndexer.totalTermFrequency;
-    this._totalTermFrequency = this.totalTermFrequency;
-    this._documents = newIndexer._documents;
-    this._docTermOffset = newIndexer._docTermOffset;
-    this._termList = newIndexer._termList;
-    this._numDocs = _documents.size();
+    if (!new File(manifestFile).exists() && new File(indexFile).exists()) {
+      migrateIndex();
+    }
+    System.out.println("Load index from: " + manifestFile);
+    _manifest = IndexManifest.load(manifestFile);
+    this._totalTermFrequency = _manifest.totalTermFrequency();
+    this._numDocs = _manifest.numDocs();
+    this._documents = null;
+    this._docTermOffset = null;
+    this._termList = null;
     this._diskLength = null;
     this._pageRanks = null;
+    this._diskIndex = null;
 
-    cacheIndex = new HashMap<Integer, Integer>();
+    if (!new File(dictionaryFile).exists()) {
+      IndexerInvertedCompressed.writeDictionary(_manifest, dictionaryFile);
+    }
+    _dictionary = TermDictionary.load(dictionaryFile);
+    _listOffsets = new long[_dictionary.size()];
     DataInputStream reader = new DataInputStream(new BufferedInputStream(
         new FileInputStream(diskIndexFile)));
-    for (String str : _termList) {
-      _diskIndex.put(str, reader.readInt());
+    for (int i = 0; i < _listOffsets.length; i++) {
+      _listOffsets[i] = reader.readLong();
     }
-    _termList = null;
     reader.close();
+    _postingFile = new MappedPostingFile(postingListFile);
+    _lexicon = Lexicon.load(lexiconFile);
     // Loading each size of the term posting list.
     System.out.println(Integer.toString(_numDocs) + " documents loaded "
         + "with " + Long.toString(_totalTermFrequency) + " terms!");
   }
 
-  /**
-   * In HW2, you should be using {@link DocumentIndexed}
-   */
-  @Override
-  public Document nextDoc(Query query, int docid) {
-    if (query == null) {
-      return null;
-    }
-    if (!currentQuery.equals(query._query)) {
-      currentQuery = query._query;
-      loadQueryList(query);
-    }
-    while (true) {
-      boolean found = true;
-      int docCandidate = nextContainAllDocument(query, docid);
-      if (docCandidate == -1) {
-        return null;
-      }
-
-      Vector<String> phrases = query._tokens;
-      for (String phrase : phrases) {
-        String[] terms = phrase.trim().split(" +");
-        if (terms.length != 1) {
-          if (!containPhrase(terms, docCandidate)) {
-            found = false;
-            break;
-          }
-        }
-      }
-      if (found) {
-        return getDoc(docCandidate);
-      }
-      docid = docCandidate;
-    }
+  // Index directories written before the manifest only have the serialized
+  // indexer object, convert it once.
+  private void migrateIndex() throws IOException, ClassNotFoundException {
+    System.out.println("Migrate " + indexFile + " to " + manifestFile);
+    ObjectInputStream is = new ObjectInputStream(new BufferedInputStream(
+        new FileInputStream(indexFile)));
+    IndexerStackOverFlowCompressed oldIndexer =
+        (IndexerStackOverFlowCompressed) is.readObject();
+    is.close();
+    List<Integer> offsets = oldIndexer._docTermOffset;
+    if (offsets.size() != oldIndexer._documents.size()) {
+      // questions without an answer got no offset, so which answer belongs
+      // to which question is lost, keep none
+      System.out.println("Answers in " + indexFile + " do not match its "
+          + "documents, dropped");
+      offsets = Collections.nCopies(oldIndexer._documents.size(), 0);
+    }
+    IndexManifest.write(manifestFile, IndexManifest.KIND_STACKOVERFLOW,
+        oldIndexer._documents, oldIndexer._termList, offsets,
+        oldIndexer.totalTermFrequency);
   }
 
   @Override
   public Document getDoc(int docid) {
-    return (docid >= _documents.size() || docid < 0) ? null : _documents
-        .get(docid);
-  }
-
-  private void loadQueryList(Query query) {
-    _postingLists.clear();
-    cacheIndex.clear();
-    Vector<String> terms = ((QueryPhrase) query).getUniqTermVector();
-    for (String term : terms) {
-      if (_diskIndex.containsKey(term)) {
-        if (!_postingLists.containsKey(_diskIndex.get(term))) {
-          _postingLists.put(_diskIndex.get(term),
-              decodeByte(getTermListFromDisk(term)));
-          cacheIndex.put(_diskIndex.get(term), 0);
-          if (_postingLists.size() >= CACHE_SIZE) {
-            return;
-          }
-        }
-      }
-    }
+    return _manifest.getDoc(docid);
   }
 
   /**
-   * Gets the term list from memory, or from disk when not in memory. If not in
-   * disk either, return null
-   * 
-   * @param term
-   * @return
+   * In HW2, you should be using {@link DocumentIndexed}
+   *
+   * Every call opens a new cursor, rankers iterate through
+   * {@link #getQueryCursor(Query)} instead.
    */
-  private List<Integer> getTermList(String term) {
-    if (!_diskIndex.containsKey(term)) {
+  @Override
+  public Document nextDoc(Query query, int docid) {
+    if (query == null) {
       return null;
     }
-    List<Integer> list;
-    if (_postingLists.containsKey(_diskIndex.get(term))) {
-      return _postingLists.get(_diskIndex.get(term));
-    } else {
-      list = decodeByte(getTermListFromDisk(term));
-      _postingLists.put(_diskIndex.get(term), list);
-      if (_postingLists.size() > CACHE_SIZE) {
-        _postingLists.clear();
-      }
-      return list;
-    }
+    return getQueryCursor(query).nextDoc(docid);
   }
 
-  // Given a term, load term list from disk
-  protected List<Byte> getTermListFromDisk(String term) {
-    List<Byte> list = new ArrayList<Byte>();
-    int offset = _diskIndex.get(term);
-    String inputFile = _options._indexPrefix + "/stack.list";
-    try {
-      RandomAccessFile raf = new RandomAccessFile(inputFile, "r");
-      DataInputStream reader = new DataInputStream(new BufferedInputStream(
-          new FileInputStream(raf.getFD())));
-      raf.seek(offset);
-      int size = reader.readInt();
-      for (int i = 0; i < size; i++) {
-        list.add((reader.readByte()));
-      }
-      raf.close();
-      reader.close();
-    } catch (Exception e) {
-      e.printStackTrace();
-    }
-    return list;
-  }
-
-  /**
-   * Returns the next document id in which contains all tokens from query.
-   * Returns -1 if no qualified document exists.
-   * 
-   * @param query
-   * @param docid
-   * @return
-   */
-  private int nextContainAllDocument(Query query, int docid) {
-    while (true) {
-      boolean isEqual = true;
-      List<Integer> docids = new ArrayList<Integer>();
-      Vector<String> terms = ((QueryPhrase) query).getUniqTermVector();
-      for (String term : terms) {
-        int d = next(term, docid);
-        if (d == -1)
-          return -1;
-        docids.add(d);
-      }
-      if (docids.size() == 0) {
-        return -1;
-      }
-      int result = docids.get(0);
-      for (int i = 1; i < docids.size(); i++) {
-        int id = docids.get(i);
-        if (result != id) {
-          // jump to next docid
-          isEqual = false;
-          break;
-        }
-      }
-      if (isEqual) {
-        return result;
-      }
-      docid = Collections.max(docids) - 1;
-
-    }
-  }
-
-  /**
-   * Returns document id after the given document id Returns -1 if no document
-   * left to search
-   * 
-   * @param term
-   * @param docid
-   * @return
-   */
-  private int next(String term, int docid) {
-
-    List<Integer> list = getTermList(term);
-    if (list == null) {
-      return -1;
-    }
-    int cache = cacheIndex.get(_diskIndex.get(term));
-    if (list.size() == 0 || list.get(list.size() - 2) <= docid) {
-      return -1;
-    }
-    if (list.get(0) > docid) {
-      cacheIndex.put(_diskIndex.get(term), 0);
-      return list.get(0);
-    }
-
-    if (cache > 0) {
-      int current = list.get(cache);
-      int i = cache;
-      while (i >= 0 && list.get(i) == current) {
-        i = i - 2;
-      }
-      if (list.get(i) > docid) {
-        cache = 0;
-      }
-    }
-    while (list.get(cache) <= docid) {
-      cache = cache + 2;
-    }
-    cacheIndex.put(_diskIndex.get(term), cache);
-    return list.get(cache);
-  }
-
-  // terms at least contain 2 words
-  private boolean containPhrase(String[] terms, int docid) {
-    int pos = -1;
-    // position == -1 indicate has searched to the end of the document
-    while (true) {
-      boolean contains = true;
-      List<Integer> positions = new ArrayList<Integer>();
-
-      for (String term : terms) {
-        int p = nextPos(term, docid, pos);
-        if (p == -1) {
-          return false;
-        }
-        positions.add(p);
-      }
-
-      int p1 = positions.get(0);
-      for (int i = 1; i < positions.size(); i++) {
-        int p2 = positions.get(i);
-        if ((p1 + 1) != p2) {
-          contains = false;
-          break;
-        }
-        p1 = p2;
-      }
-      // if found
-      if (contains) {
-        return contains;
-      }
-      pos = Collections.min(positions);
-    }
+  @Override
+  public QueryCursor getQueryCursor(Query query) {
+    return new InvertedQueryCursor(this, query);
   }
 
-  // return next occurrence of word in document after current position
-  private int nextPos(String word, int docid, int pos) {
-    List<Integer> list = getTermList(word);
-    if (list == null || list.size() == 0 || list.get(list.size() - 1) <= pos) {
-      return -1;
-    }
-
-    int cache = cacheIndex.get(_diskIndex.get(word));
-    int p = 0;
-    while (list.get(cache) == docid) {
-      p = list.get(cache + 1);
-      if (p > pos) {
-        return p;
-      }
-      cache = cache + 2;
+  @Override
+  PostingIterator getPostingIterator(String term) {
+    int id = _dictionary.termId(term);
+    if (id < 0) {
+      return null;
     }
-    return -1;
+    return new SkipListPostingIterator(_postingFile.getList(_listOffsets[id]));
   }
 
   @Override
   // Number of documents in which {@code term} appeared, over the full
   // corpus.
   public int corpusDocFrequencyByTerm(String term) {
-    // check whether the term is in postingLists, if not load from disk
-    List<Integer> list = getTermList(term);
-    if (list == null) {
-      return 0;
-    }
-    int result = 0;
-    int docid = -1;
-    for (int i = 0; i < list.size(); i = i + 2) {
-      if (docid != list.get(i)) {
-        result++;
-        docid = list.get(i);
-      }
-    }
-    return result;
+    int id = _dictionary.termId(term);
+    return id < 0 ? 0 : _lexicon.docFrequency(id);
   }
 
   @Override
   // Number of times {@code term} appeared in corpus.
   public int corpusTermFrequency(String term) {
-    // check whether the term is in postingLists, if not load from disk
-    List<Integer> list = getTermList(term);
-    if (list == null) {
-      return 0;
-    }
-    return list.size() / 2;
+    int id = _dictionary.termId(term);
+    return id < 0 ? 0 : _lexicon.termFrequency(id);
   }
 
   /**
@@ -653,66 +467,11 @@ public class IndexerStackOverFlowCompressed extends Indexer implements
    */
   @Override
   public int documentTermFrequency(String term, int docid) {
-    // check whether the term is in postingLists, if not load from disk
-    List<Integer> list = null;
-    int cache = 0;
-    if (_postingLists.containsKey(_diskIndex.get(term))) {
-      list = _postingLists.get(_diskIndex.get(term));
-      cache = cacheIndex.get(_diskIndex.get(term));
-    } else {
-      if (!currentTerm.equals(term)) {
-        list = getTermList(term);
-        cacheTermList = list;
-        currentTerm = term;
-        cacheTermListIndex = 0;
-      } else {
-        list = cacheTermList;
-        cache = cacheTermListIndex;
-      }
-    }
-    if (list == null) {
+    PostingIterator iterator = getPostingIterator(term);
+    if (iterator == null || iterator.next(docid - 1) != docid) {
       return 0;
     }
-    int result = 0;
-    if (list.get(list.size() - 2) < docid) {
-      return 0;
-    }
-    if (cache == list.size()) {
-      cache = 0;
-    }
-    if (cache > 0) {
-      int current = list.get(cache);
-      int i = cache;
-      while (i >= 0 && list.get(i) == current) {
-        i = i - 2;
-      }
-      if (list.get(i) > docid) {
-        cache = 0;
-      } else if (list.get(i) == docid) {
-        while (i >= 0 && list.get(i) == docid) {
-          i = i - 2;
-        }
-        if (i == 0) {
-          cache = i;
-        } else {
-          cache = i + 2;
-        }
-      }
-    }
-    for (; cache < list.size(); cache = cache + 2) {
-      if (docid == list.get(cache)) {
-        result++;
-      }
-      if (list.get(cache) > docid) {
-        break;
-      }
-    }
-    if (_postingLists.containsKey(_diskIndex.get(term))) {
-      cacheIndex.put(_diskIndex.get(term), cache);
-    } else {
-      cacheTermListIndex = cache;
-    }
-    return result;
+    return iterator.frequency();
   }
 
   /**
@@ -725,12 +484,16 @@ public class IndexerStackOverFlowCompressed extends Indexer implements
   }
 
   /**
-   * Given a docid, return its answer
+   * Given a docid, return its answer, "" if it has none
    */
   public String getKnowledge(int docid) {
     int offset = 0;
     if (docid != 0) {
-      offset = _docTermOffset.get(docid - 1);
+      offset = _manifest.docTermOffset(docid - 1);
+    }
+    // no answer was kept, as in migrated indexes that lost them
+    if (_manifest.docTermOffset(docid) == offset) {
+      return "";
     }
 
     String knowledge = "";
@@ -748,79 +511,32 @@ public class IndexerStackOverFlowCompressed extends Indexer implements
     return knowledge;
   }
 
-  private byte[] vByte(int num) {
-    byte[] ret = null;
-    if (num < 128) {
-      ret = new byte[1];
-      ret[0] = (byte) (num + 128);
-      return ret;
-    } else if (num < 16384) {
-      ret = new byte[2];
-      ret[0] = (byte) (num / 128);
-      ret[1] = (byte) (num % 128 + 128);
-    } else if (num < 2097152) {
-      ret = new byte[3];
-      ret[0] = (byte) (num / 16384);
-      byte[] rest = vByte(num % 16384);
-      if (rest.length == 1) {
-        ret[1] = 0;
-        ret[2] = rest[0];
+  // decode the vByte stream straight from the buffer, the last byte of each
+  // number is the one with the high bit set
+  private PostingList decodeByte(ByteBuffer buffer) {
+    // size the list exactly, each number ends with one high bit byte
+    int count = 0;
+    for (int i = buffer.position(); i < buffer.limit(); i++) {
+      if (buffer.get(i) < 0) {
+        count++;
+      }
+    }
+    PostingList.Builder ret = new PostingList.Builder(count);
+    int value = 0;
+    while (buffer.hasRemaining()) {
+      byte b = buffer.get();
+      if (b < 0) {
+        ret.add(value * 128 + (b + 128));
+        value = 0;
       } else {
-        ret[1] = rest[0];
-        ret[2] = rest[1];
-      }
-    } else if (num < 268435456) {
-      ret = new byte[4];
-      ret[0] = (byte) (num / 2097152);
-      byte[] rest = vByte(num % 2097152);
-      if (rest.length == 1) {
-        ret[1] = 0;
-        ret[2] = 0;
-        ret[3] = rest[0];
-      } else if (rest.length == 2) {
-        ret[1] = 0;
-        ret[2] = rest[0];
-        ret[3] = rest[1];
-      } else if (rest.length == 3) {
-        ret[1] = rest[0];
-        ret[2] = rest[1];
-        ret[3] = rest[2];
+        value = value * 128 + b;
       }
     }
-    return ret;
-  }
-
-  private List<Integer> decodeByte(List<Byte> list) {
-    List<Byte> byteList = new ArrayList<Byte>();
-    List<Integer> ret = new ArrayList<Integer>();
-    for (int i = 0; i < list.size(); i++) {
-      if (list.get(i) < 0) {
-        byteList.add(list.get(i));
-        ret.add(convert(byteList));
-        byteList.clear();
-      } else {
-        byteList.add(list.get(i));
-      }
-    }
-    return ret;
-  }
-
-  private int convert(List<Byte> byteList) {
-    if (byteList.size() == 1) {
-      return (byteList.get(0) + 128);
-    } else if (byteList.size() == 2) {
-      return (byteList.get(0) * 128 + (byteList.get(1) + 128));
-    } else if (byteList.size() == 3) {
-      return (byteList.get(0) * 16384 + byteList.get(1) * 128 + (byteList
-          .get(2) + 128));
-    } else {
-      return (byteList.get(0) * 2097152 + byteList.get(1) * 16384
-          + byteList.get(2) * 128 + (byteList.get(3) + 128));
-    }
+    return ret.build();
   }
 
   @Override
   public boolean hasTerm(String term) {
-    return _diskIndex.containsKey(term);
+    return _dictionary.termId(term) >= 0;
   }
 }
@@ -0,0 +1,281 @@
+package edu.nyu.cs.cs2580;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Vector;
+
+/**
+ * Conjunctive query cursor over the inverted indexers. Returns the documents
+ * that contain every query term and, for positional indexes, match every
+ * quoted phrase, see {@link QueryPhrase}.
+ *
+ * One {@link PostingIterator} per unique query term is opened when the cursor
+ * is created, so the posting lists are fetched once per request. They are
+ * intersected rarest first: the list with the fewest documents proposes each
+ * candidate and the others skip to it, so a query mixing a rare term with a
+ * common one moves through the common list in long jumps.
+ */
+class InvertedQueryCursor extends QueryCursor {
+  private final Indexer _indexer;
+  private final Map<String, PostingIterator> _iterators = new HashMap<String, PostingIterator>();
+  private final List<PostingIterator> _termIterators = new ArrayList<PostingIterator>();
+  // _termIterators by ascending document frequency
+  private PostingIterator[] _conjunction;
+  private final List<PhraseMatcher> _phrases = new ArrayList<PhraseMatcher>();
+
+  // True when some query term is not in the index, nothing can match.
+  private boolean _exhausted = false;
+
+  public InvertedQueryCursor(Indexer indexer, Query query) {
+    this(indexer, query, false);
+  }
+
+  /**
+   * @param tier whether to run over the hot tier of the index instead of the
+   *          whole of it
+   */
+  public InvertedQueryCursor(Indexer indexer, Query query, boolean tier) {
+    _indexer = indexer;
+    Vector<String> terms = ((QueryPhrase) query).getUniqTermVector();
+    final Map<PostingIterator, Integer> frequencies =
+        new HashMap<PostingIterator, Integer>();
+    for (String term : terms) {
+      PostingIterator iterator = tier ? indexer.getTierPostingIterator(term)
+          : indexer.getPostingIterator(term);
+      if (iterator == null) {
+        _exhausted = true;
+        return;
+      }
+      _iterators.put(term, iterator);
+      _termIterators.add(iterator);
+      frequencies.put(iterator, indexer.corpusDocFrequencyByTerm(term));
+    }
+    _exhausted = _termIterators.isEmpty();
+    _conjunction = _termIterators.toArray(new PostingIterator[0]);
+    Arrays.sort(_conjunction, new Comparator<PostingIterator>() {
+      @Override
+      public int compare(PostingIterator a, PostingIterator b) {
+        return frequencies.get(a).compareTo(frequencies.get(b));
+      }
+    });
+
+    // phrases are only checked when the index keeps positions
+    for (QueryPhrase.Phrase phrase : ((QueryPhrase) query).getPhrases()) {
+      List<PostingIterator> iterators = new ArrayList<PostingIterator>();
+      for (String term : phrase._terms) {
+        iterators.add(_iterators.get(term));
+      }
+      if (!phrase._ordered) {
+        // a window only needs each term once
+        iterators = new ArrayList<PostingIterator>(
+            new LinkedHashSet<PostingIterator>(iterators));
+      }
+      if (iterators.get(0).isPositional()) {
+        _phrases.add(new PhraseMatcher(iterators
+            .toArray(new PostingIterator[0]), phrase._ordered, phrase._width));
+      }
+    }
+  }
+
+  @Override
+  public Document nextDoc(int docid) {
+    docid = nextDocid(docid);
+    return docid == -1 ? null : _indexer.getDoc(docid);
+  }
+
+  @Override
+  public int nextDocid(int docid) {
+    while (!_exhausted) {
+      // get next document contain all terms
+      int docCandidate = nextContainAllDocument(docid);
+      if (docCandidate == -1) {
+        _exhausted = true;
+        return -1;
+      }
+
+      // check whether meet phrase restrain
+      boolean found = true;
+      for (PhraseMatcher phrase : _phrases) {
+        if (!phrase.matches()) {
+          found = false;
+          break;
+        }
+      }
+      if (found) {
+        return docCandidate;
+      }
+      docid = docCandidate;
+    }
+    return -1;
+  }
+
+  @Override
+  public int documentTermFrequency(String term, int docid) {
+    PostingIterator iterator = _iterators.get(term);
+    if (iterator != null && iterator.docid() == docid) {
+      return iterator.frequency();
+    }
+    return _indexer.documentTermFrequency(term, docid);
+  }
+
+  @Override
+  public int blockMaxFrequency(String term) {
+    PostingIterator iterator = _iterators.get(term);
+    return iterator == null ? -1 : iterator.blockMaxFrequency();
+  }
+
+  @Override
+  public int blockMinLength(String term) {
+    PostingIterator iterator = _iterators.get(term);
+    return iterator == null ? 1 : iterator.blockMinLength();
+  }
+
+  @Override
+  public int blockLastDocid(int docid) {
+    int last = Integer.MAX_VALUE;
+    for (PostingIterator iterator : _termIterators) {
+      if (iterator.docid() != docid) {
+        return docid;
+      }
+      last = Math.min(last, iterator.blockLastDocid());
+    }
+    return _termIterators.isEmpty() ? docid : last;
+  }
+
+  /**
+   * Returns the next document id in which contains all terms from query.
+   * Returns -1 if no qualified document exists.
+   *
+   * The rarest list proposes a candidate and the others are skipped to it in
+   * order of document frequency. The first one to overshoot sends the rarest
+   * list on to where it landed, so the common lists are only ever asked for
+   * documents the rarer ones hold, and their skipTo gallops there.
+   */
+  private int nextContainAllDocument(int docid) {
+    PostingIterator[] lists = _conjunction;
+    int candidate = lists[0].skipTo(docid + 1);
+    int i = 1;
+    while (candidate != -1 && i < lists.length) {
+      int d = lists[i].skipTo(candidate);
+      if (d == candidate) {
+        i++;
+      } else if (d == -1) {
+        return -1;
+      } else {
+        candidate = lists[0].skipTo(d);
+        i = 1;
+      }
+    }
+    return candidate;
+  }
+
+  /**
+   * Matches one phrase against the document all the iterators are on. Each
+   * term's positions there are read once into an array kept from document to
+   * document, and the arrays are merged in a single forward pass.
+   */
+  private static class PhraseMatcher {
+    private final PostingIterator[] _iterators;
+    private final boolean _ordered;
+    private final int _width;
+    // positions of each term in the current document, and how many
+    private final int[][] _positions;
+    private final int[] _sizes;
+    // index into _positions of each term during a window match
+    private final int[] _heads;
+
+    PhraseMatcher(PostingIterator[] iterators, boolean ordered, int width) {
+      _iterators = iterators;
+      _ordered = ordered;
+      _width = width;
+      _positions = new int[iterators.length][];
+      for (int i = 0; i < iterators.length; i++) {
+        _positions[i] = new int[8];
+      }
+      _sizes = new int[iterators.length];
+      _heads = new int[iterators.length];
+    }
+
+    private void loadPositions(int i) {
+      _positions[i] = _iterators[i].positions(_positions[i]);
+      _sizes[i] = _iterators[i].frequency();
+    }
+
+    boolean matches() {
+      return _ordered ? matchesInOrder() : matchesInWindow();
+    }
+
+    /**
+     * Keeps, term by term, the positions of the term that follow a kept
+     * position of the term before it by 1 to _width. Both lists are
+     * ascending, so one pointer into the previous list only ever moves
+     * forward. For an exact phrase this is the merge of the positions of
+     * term i shifted back by i. Kept positions overwrite the array in place.
+     */
+    private boolean matchesInOrder() {
+      loadPositions(0);
+      int[] previous = _positions[0];
+      int previousSize = _sizes[0];
+      for (int i = 1; i < _iterators.length && previousSize > 0; i++) {
+        loadPositions(i);
+        int[] current = _positions[i];
+        int size = _sizes[i];
+        int kept = 0;
+        int j = 0;
+        for (int k = 0; k < size; k++) {
+          int position = current[k];
+          while (j < previousSize && previous[j] < position - _width) {
+            j++;
+          }
+          if (j < previousSize && previous[j] < position) {
+            current[kept++] = position;
+          }
+        }
+        previous = current;
+        previousSize = kept;
+      }
+      return previousSize > 0;
+    }
+
+    /**
+     * Holds one position per term, starting from the first ones. While they
+     * span _width positions or more, the lowest one can not be in any match,
+     * so its term gallops to its first position that could share a window
+     * with the highest one.
+     */
+    private boolean matchesInWindow() {
+      int[] heads = _heads;
+      for (int i = 0; i < _iterators.length; i++) {
+        loadPositions(i);
+        if (_sizes[i] == 0) {
+          return false;
+        }
+        heads[i] = 0;
+      }
+      while (true) {
+        int lowest = 0;
+        int max = Integer.MIN_VALUE;
+        for (int i = 0; i < _iterators.length; i++) {
+          int position = _positions[i][heads[i]];
+          if (position < _positions[lowest][heads[lowest]]) {
+            lowest = i;
+          }
+          max = Math.max(max, position);
+        }
+        if (max - _positions[lowest][heads[lowest]] < _width) {
+          return true;
+        }
+        heads[lowest] = PostingList.gallop(_positions[lowest],
+            heads[lowest] + 1, _sizes[lowest], 1, max - _width + 1);
+        if (heads[lowest] >= _sizes[lowest]) {
+          return false;
+        }
+      }
+    }
+  }
+}
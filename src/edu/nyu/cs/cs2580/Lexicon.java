@@ -0,0 +1,112 @@
+package edu.nyu.cs.cs2580;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Per term statistics indexed by term id: document frequency, corpus term
+ * frequency and the length in bytes of the stored posting list.
+ *
+ * The statistics are collected while the final posting lists are written and
+ * saved next to them, so serving answers them from three int arrays instead of
+ * decoding the list. On disk the file is the number of terms followed by the
+ * three columns, all as big-endian ints.
+ */
+public class Lexicon {
+  private int[] _docFrequency;
+  private int[] _termFrequency;
+  private int[] _listLength;
+  private int _size = 0;
+
+  public Lexicon() {
+    this(16);
+  }
+
+  public Lexicon(int capacity) {
+    capacity = Math.max(capacity, 1);
+    _docFrequency = new int[capacity];
+    _termFrequency = new int[capacity];
+    _listLength = new int[capacity];
+  }
+
+  // Appends the statistics of the next term id.
+  public void add(int docFrequency, int termFrequency, int listLength) {
+    if (_size == _docFrequency.length) {
+      _docFrequency = Arrays.copyOf(_docFrequency, _size * 2);
+      _termFrequency = Arrays.copyOf(_termFrequency, _size * 2);
+      _listLength = Arrays.copyOf(_listLength, _size * 2);
+    }
+    _docFrequency[_size] = docFrequency;
+    _termFrequency[_size] = termFrequency;
+    _listLength[_size] = listLength;
+    _size++;
+  }
+
+  // Appends the statistics of all the terms of other, in order.
+  public void addAll(Lexicon other) {
+    for (int i = 0; i < other._size; i++) {
+      add(other._docFrequency[i], other._termFrequency[i],
+          other._listLength[i]);
+    }
+  }
+
+  public int size() {
+    return _size;
+  }
+
+  public int docFrequency(int termId) {
+    return _docFrequency[termId];
+  }
+
+  public int termFrequency(int termId) {
+    return _termFrequency[termId];
+  }
+
+  public int listLength(int termId) {
+    return _listLength[termId];
+  }
+
+  public void write(String fileName) throws IOException {
+    DataOutputStream writer = new DataOutputStream(new BufferedOutputStream(
+        new FileOutputStream(fileName)));
+    writer.writeInt(_size);
+    for (int[] column : new int[][] { _docFrequency, _termFrequency,
+        _listLength }) {
+      for (int i = 0; i < _size; i++) {
+        writer.writeInt(column[i]);
+      }
+    }
+    writer.close();
+  }
+
+  public static Lexicon load(String fileName) throws IOException {
+    FileInputStream input = new FileInputStream(fileName);
+    try {
+      FileChannel channel = input.getChannel();
+      ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+      while (buffer.hasRemaining()) {
+        if (channel.read(buffer) < 0) {
+          throw new IOException("Truncated lexicon: " + fileName);
+        }
+      }
+      buffer.flip();
+      IntBuffer ints = buffer.asIntBuffer();
+      int size = ints.get();
+      Lexicon lexicon = new Lexicon(size);
+      ints.get(lexicon._docFrequency, 0, size);
+      ints.get(lexicon._termFrequency, 0, size);
+      ints.get(lexicon._listLength, 0, size);
+      lexicon._size = size;
+      return lexicon;
+    } finally {
+      input.close();
+    }
+  }
+}
@@ -0,0 +1,112 @@
+package edu.nyu.cs.cs2580;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The PageRank link graph in compressed sparse row form. Nodes are numbered
+ * 0 to size() - 1 in docid order; the links of node i are
+ * target(linkStart(i)) to target(linkStart(i + 1) - 1). Two int arrays in
+ * all, where a map of sets costs a boxed Integer and a hash entry per link.
+ */
+class LinkGraph {
+  // docid of each node, ascending
+  private final int[] _docids;
+  // size() + 1 entries, the links of node i start at _offsets[i]
+  private final int[] _offsets;
+  private final int[] _targets;
+
+  LinkGraph(int[] docids, int[] offsets, int[] targets) {
+    _docids = docids;
+    _offsets = offsets;
+    _targets = targets;
+  }
+
+  public int size() {
+    return _docids.length;
+  }
+
+  public int docid(int node) {
+    return _docids[node];
+  }
+
+  public int linkStart(int node) {
+    return _offsets[node];
+  }
+
+  public int target(int link) {
+    return _targets[link];
+  }
+
+  public int outDegree(int node) {
+    return _offsets[node + 1] - _offsets[node];
+  }
+
+  public int numLinks() {
+    return _targets.length;
+  }
+
+  /**
+   * The same nodes with every link reversed, so node i lists the nodes that
+   * link to it. Lets the rank of each node be computed from its in-links
+   * alone, with no writes shared between threads.
+   */
+  public LinkGraph transpose() {
+    int n = size();
+    int[] offsets = new int[n + 1];
+    for (int target : _targets) {
+      offsets[target + 1]++;
+    }
+    for (int i = 0; i < n; i++) {
+      offsets[i + 1] += offsets[i];
+    }
+    int[] next = Arrays.copyOf(offsets, n);
+    int[] sources = new int[_targets.length];
+    for (int i = 0; i < n; i++) {
+      for (int k = _offsets[i]; k < _offsets[i + 1]; k++) {
+        sources[next[_targets[k]]++] = i;
+      }
+    }
+    return new LinkGraph(_docids, offsets, sources);
+  }
+
+  // The graph of docid to linked docids built by prepare().
+  public static LinkGraph fromMap(Map<Integer, Set<Integer>> graph) {
+    int[] docids = new int[graph.size()];
+    int n = 0;
+    for (Integer docid : graph.keySet()) {
+      docids[n++] = docid;
+    }
+    Arrays.sort(docids);
+    int[] nodes = nodeIndex(docids);
+    int[] offsets = new int[n + 1];
+    int links = 0;
+    for (Set<Integer> targets : graph.values()) {
+      links += targets.size();
+    }
+    int[] targets = new int[links];
+    links = 0;
+    for (int i = 0; i < n; i++) {
+      for (Integer target : graph.get(docids[i])) {
+        int node = target < nodes.length ? nodes[target] : -1;
+        if (node >= 0) {
+          targets[links++] = node;
+        }
+      }
+      offsets[i + 1] = links;
+    }
+    return new LinkGraph(docids, offsets, Arrays.copyOf(targets, links));
+  }
+
+  // Node of each docid up to the largest, -1 for docids with no node.
+  private static int[] nodeIndex(int[] docids) {
+    int[] nodes = new int[docids.length == 0 ? 0
+        : docids[docids.length - 1] + 1];
+    Arrays.fill(nodes, -1);
+    for (int i = 0; i < docids.length; i++) {
+      nodes[docids[i]] = i;
+    }
+    return nodes;
+  }
+}
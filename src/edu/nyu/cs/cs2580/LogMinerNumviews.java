@@ -2,18 +2,34 @@ package edu.nyu.cs.cs2580;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
-import java.io.BufferedReader;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
-import java.io.FileReader;
 import java.io.IOException;
+import java.io.InputStream;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TimeZone;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import edu.nyu.cs.cs2580.SearchEngine.Options;
 
@@ -22,6 +38,14 @@ import edu.nyu.cs.cs2580.SearchEngine.Options;
  */
 public class LogMinerNumviews extends LogMiner {
 
+  private static final Pattern LOG_DAY = Pattern
+      .compile("pagecounts-(\\d{8})(?:-.*)?");
+  private static final Pattern SEGMENT_NAME = Pattern
+      .compile("viewsDay-(\\d{8})");
+  private static final long MILLIS_PER_DAY = 24L * 60 * 60 * 1000;
+  // epochDay of a string that is not a day
+  private static final int NO_DAY = Integer.MIN_VALUE;
+
   private String numViewsFile = _options._miningPrefix + "/numViewsResult";
 
   public LogMinerNumviews(Options options) {
@@ -43,69 +67,445 @@ public class LogMinerNumviews extends LogMiner {
    */
   @Override
   public void compute() throws IOException{
+    Set<String> docs = new HashSet<String>();
+    for (String prefix : new String[] { _options._corpusPrefix,
+        _options._stackOverFlowPrefix }) {
+      DocumentSource source = DocumentSource.open(prefix);
+      try {
+        while (source.next()) {
+          docs.add(source.name());
+        }
+      } finally {
+        source.close();
+      }
+    }
+    compute(docs);
+  }
+
+  /**
+   * Same as {@link #compute()} for the given document names, used by
+   * --mode=build which has already read the corpus.
+   *
+   * The views of each day are kept in a segment of the mining directory,
+   * viewsDay-yyyyMMdd, holding the views of every corpus page that day and
+   * the log files they came from. A day is only counted again when one of
+   * its log files is new or has changed, so a new day of logs costs that day
+   * alone, and segments outlive the logs they came from. The views of a
+   * page are the sum over the days of numviews_window_days up to the latest,
+   * each day weighted down by half every numviews_half_life_days before the
+   * latest. Pages new to the corpus only have views from the days counted
+   * since.
+   */
+  void compute(Set<String> docs) throws IOException {
     System.out.println("Computing using " + this.getClass().getName());
     deleteExistingFiles();
-    Set<String> redirects = new HashSet<String>();
-    Set<String> docs = new HashSet<String>();
-    Map<String, Integer> numViews = new HashMap<String, Integer>();
+    File logDir = new File(_options._logPrefix);
+    if (!logDir.exists() || !logDir.isDirectory()) {
+      return;
+    }
+    List<String> names = new ArrayList<String>(docs);
+    NameTable table = new NameTable(names);
+    // views of a redirect go to the page it redirects to, -1 drops them
+    int[] targets = new int[names.size()];
+    for (int i = 0; i < targets.length; i++) {
+      String name = names.get(i);
+      if (!docs.contains(name + ".html")) {
+        targets[i] = i;
+      } else if (docs.contains(name + ".html.html")) {
+        targets[i] = -1;
+      } else {
+        targets[i] = table.find(name + ".html");
+      }
+    }
 
-    File corpusDirectory = new File(_options._corpusPrefix);
-    File stackOverFlowDir = new File(_options._stackOverFlowPrefix);
-    if (corpusDirectory.isDirectory() && stackOverFlowDir.isDirectory()) {
-      File[] corpusFiles = corpusDirectory.listFiles();
-      File[] stackFiles = stackOverFlowDir.listFiles();
-      File[] allFiles = new File[(corpusFiles.length + stackFiles.length)];
-      System.arraycopy(corpusFiles, 0, allFiles, 0, corpusFiles.length);
-      System.arraycopy(stackFiles, 0, allFiles, corpusFiles.length, stackFiles.length);
-      for (File file : allFiles) {
-        docs.add(file.getName());
-      }
-
-      for (File file : allFiles) {
-        if (isValidDocument(file)) {
-          if (docs.contains(file.getName() + ".html")) {
-            redirects.add(file.getName());
-          } else {
-            numViews.put(file.getName(), 0);
+    Map<String, List<File>> logsByDay = new TreeMap<String, List<File>>();
+    for (File logFile : logDir.listFiles()) {
+      String day = logDay(logFile.getName());
+      if (day == null) {
+        System.err.println("Skipping log file not named pagecounts-yyyyMMdd: "
+            + logFile.getName());
+        continue;
+      }
+      if (!logsByDay.containsKey(day)) {
+        logsByDay.put(day, new ArrayList<File>());
+      }
+      logsByDay.get(day).add(logFile);
+    }
+    for (Map.Entry<String, List<File>> day : logsByDay.entrySet()) {
+      updateSegment(day.getKey(), day.getValue(), names, table);
+    }
+
+    TreeMap<Integer, File> segments = new TreeMap<Integer, File>();
+    for (File file : new File(_options._miningPrefix).listFiles()) {
+      Matcher matcher = SEGMENT_NAME.matcher(file.getName());
+      if (matcher.matches() && epochDay(matcher.group(1)) != NO_DAY) {
+        if (fromNamedLogs(file, matcher.group(1))) {
+          segments.put(epochDay(matcher.group(1)), file);
+        } else {
+          System.err.println("Deleting " + file.getName()
+              + ", not counted from pagecounts logs of its day");
+          file.delete();
+        }
+      }
+    }
+    double[] views = new double[names.size()];
+    if (!segments.isEmpty()) {
+      int latest = segments.lastKey();
+      for (Map.Entry<Integer, File> segment : segments.entrySet()) {
+        int age = latest - segment.getKey();
+        if (_options._numViewsWindowDays > 0
+            && age >= _options._numViewsWindowDays) {
+          continue;
+        }
+        double weight = _options._numViewsHalfLifeDays > 0 ? Math.pow(0.5,
+            age / _options._numViewsHalfLifeDays) : 1.0;
+        DataInputStream reader = new DataInputStream(new BufferedInputStream(
+            new FileInputStream(segment.getValue())));
+        try {
+          skipSources(reader);
+          int count = reader.readInt();
+          for (int i = 0; i < count; i++) {
+            int doc = table.find(reader.readUTF());
+            long dayViews = reader.readLong();
+            if (doc >= 0 && targets[doc] >= 0) {
+              views[targets[doc]] += weight * dayViews;
+            }
           }
+        } finally {
+          reader.close();
         }
       }
-      File logDir = new File(_options._logPrefix);
-      if (logDir.exists() && logDir.isDirectory()) {
-        File[] logFiles = logDir.listFiles();
-        for (File logFile : logFiles) {
-          BufferedReader reader = new BufferedReader(new FileReader(logFile));
-          String line;
-          while ((line = reader.readLine()) != null) {
-            String[] logLine = line.split(" ");
-            if (logLine.length != 3)
-              continue;
-            String docName = logLine[1];
-            String docNum = logLine[2];
-            if (!docs.contains(docName))
-              continue;
-            if (redirects.contains(docName)) {
-              docName = docName + ".html";
+    }
+
+    Map<String, Integer> numViews = new HashMap<String, Integer>();
+    for (int i = 0; i < targets.length; i++) {
+      if (targets[i] == i) {
+        numViews.put(names.get(i), (int) Math.round(views[i]));
+      }
+    }
+    DataOutputStream writer = new DataOutputStream(
+        new BufferedOutputStream(new FileOutputStream(numViewsFile)));
+    writer.writeInt(numViews.size());
+    for (String docName : numViews.keySet()) {
+      writer.writeUTF(docName);
+      writer.writeInt(numViews.get(docName));
+    }
+    writer.close();
+  }
+
+  /**
+   * Day of a log file as yyyyMMdd, from its name as in
+   * pagecounts-20130101-000000 or pagecounts-20130101. Null for any other
+   * name or a date that does not exist: the day of a log decides the window
+   * and the decay of all the others, so it is never guessed.
+   */
+  private static String logDay(String fileName) {
+    Matcher matcher = LOG_DAY.matcher(fileName);
+    if (matcher.matches() && epochDay(matcher.group(1)) != NO_DAY) {
+      return matcher.group(1);
+    }
+    return null;
+  }
+
+  /**
+   * Whether a segment was counted from logs named with its day. Segments
+   * made before log files had to be named were also counted from files
+   * dated by when they were modified.
+   */
+  private static boolean fromNamedLogs(File segment, String day)
+      throws IOException {
+    DataInputStream reader = new DataInputStream(new BufferedInputStream(
+        new FileInputStream(segment)));
+    try {
+      int count = reader.readInt();
+      for (int i = 0; i < count; i++) {
+        boolean named = day.equals(logDay(reader.readUTF()));
+        reader.readLong();
+        if (named) {
+          return true;
+        }
+      }
+      return false;
+    } finally {
+      reader.close();
+    }
+  }
+
+  // Days since 1970-01-01 of a yyyyMMdd day, NO_DAY if it is not a date.
+  private static int epochDay(String day) {
+    SimpleDateFormat format = new SimpleDateFormat("yyyyMMdd");
+    format.setTimeZone(TimeZone.getTimeZone("UTC"));
+    format.setLenient(false);
+    try {
+      return (int) (format.parse(day).getTime() / MILLIS_PER_DAY);
+    } catch (ParseException e) {
+      return NO_DAY;
+    }
+  }
+
+  /**
+   * Brings the segment of the day up to date with its log files. Files new to
+   * the segment are counted and added to it; if a file it was counted from
+   * has changed or is not named with the day, its views can not be taken
+   * back out, so the day is counted again from the files there now. Files
+   * that are gone keep their views.
+   * Counts are kept per page name, redirects are only resolved when the
+   * segments are summed.
+   */
+  private void updateSegment(String day, List<File> logFiles,
+      List<String> names, NameTable table) throws IOException {
+    File segment = new File(_options._miningPrefix + "/viewsDay-" + day);
+    Collections.sort(logFiles);
+    // the files the segment was counted from and their lengths, its views
+    Map<String, Long> sources = new TreeMap<String, Long>();
+    Map<String, Long> counted = new LinkedHashMap<String, Long>();
+    if (segment.exists()) {
+      DataInputStream reader = new DataInputStream(new BufferedInputStream(
+          new FileInputStream(segment)));
+      try {
+        int count = reader.readInt();
+        for (int i = 0; i < count; i++) {
+          sources.put(reader.readUTF(), reader.readLong());
+        }
+        count = reader.readInt();
+        for (int i = 0; i < count; i++) {
+          counted.put(reader.readUTF(), reader.readLong());
+        }
+      } finally {
+        reader.close();
+      }
+    }
+    List<File> added = new ArrayList<File>();
+    boolean changed = false;
+    // counted in part from a file dated by when it was modified
+    for (String source : sources.keySet()) {
+      if (!day.equals(logDay(source))) {
+        changed = true;
+      }
+    }
+    for (File logFile : logFiles) {
+      Long length = sources.get(logFile.getName());
+      if (length == null) {
+        added.add(logFile);
+      } else if (length != logFile.length()) {
+        changed = true;
+      }
+    }
+    if (changed) {
+      sources.clear();
+      counted.clear();
+      added = logFiles;
+    } else if (added.isEmpty()) {
+      return;
+    }
+
+    System.out.println("Counting views of " + day);
+    int[] targets = new int[names.size()];
+    for (int i = 0; i < targets.length; i++) {
+      targets[i] = i;
+    }
+    long[] views = countViews(added.toArray(new File[added.size()]), table,
+        targets);
+    for (File logFile : added) {
+      sources.put(logFile.getName(), logFile.length());
+    }
+    for (int i = 0; i < views.length; i++) {
+      if (views[i] != 0) {
+        Long dayViews = counted.get(names.get(i));
+        counted.put(names.get(i), views[i]
+            + (dayViews == null ? 0 : dayViews));
+      }
+    }
+    int count = 0;
+    for (long dayViews : counted.values()) {
+      if (dayViews != 0) {
+        count++;
+      }
+    }
+    DataOutputStream writer = new DataOutputStream(new BufferedOutputStream(
+        new FileOutputStream(segment)));
+    try {
+      writer.writeInt(sources.size());
+      for (Map.Entry<String, Long> source : sources.entrySet()) {
+        writer.writeUTF(source.getKey());
+        writer.writeLong(source.getValue());
+      }
+      writer.writeInt(count);
+      for (Map.Entry<String, Long> dayViews : counted.entrySet()) {
+        if (dayViews.getValue() != 0) {
+          writer.writeUTF(dayViews.getKey());
+          writer.writeLong(dayViews.getValue());
+        }
+      }
+    } finally {
+      writer.close();
+    }
+  }
+
+  private static void skipSources(DataInputStream reader) throws IOException {
+    int count = reader.readInt();
+    for (int i = 0; i < count; i++) {
+      reader.readUTF();
+      reader.readLong();
+    }
+  }
+
+  // Views per target in the log files, counted on _indexThreads threads.
+  private long[] countViews(File[] logFiles, NameTable table, int[] targets)
+      throws IOException {
+    final AtomicInteger nextFile = new AtomicInteger();
+    ExecutorService counters = Executors
+        .newFixedThreadPool(_options._indexThreads);
+    List<Future<long[]>> results = new ArrayList<Future<long[]>>();
+    for (int i = 0; i < _options._indexThreads; i++) {
+      results.add(counters.submit(new LogCounter(table, targets, logFiles,
+          nextFile)));
+    }
+    long[] views = new long[table.size()];
+    try {
+      for (Future<long[]> result : results) {
+        long[] counts = result.get();
+        for (int i = 0; i < views.length; i++) {
+          views[i] += counts[i];
+        }
+      }
+    } catch (InterruptedException e) {
+      throw new IOException(e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      throw new IOException(e.getCause());
+    } finally {
+      counters.shutdownNow();
+    }
+    return views;
+  }
+
+  /**
+   * Counts the views of corpus pages in the log files, taking the next file
+   * not yet claimed by another counter until none is left. Lines are parsed
+   * in place in a byte buffer and the article name is looked up from its
+   * bytes, so the lines of the other articles cost no allocation at all.
+   */
+  private static class LogCounter implements Callable<long[]> {
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    private final NameTable _table;
+    private final int[] _targets;
+    private final File[] _files;
+    private final AtomicInteger _nextFile;
+    private final long[] _counts;
+
+    LogCounter(NameTable table, int[] targets, File[] files,
+        AtomicInteger nextFile) {
+      _table = table;
+      _targets = targets;
+      _files = files;
+      _nextFile = nextFile;
+      _counts = new long[table.size()];
+    }
+
+    @Override
+    public long[] call() throws IOException {
+      byte[] buffer = new byte[BUFFER_SIZE];
+      int file;
+      while ((file = _nextFile.getAndIncrement()) < _files.length) {
+        InputStream input = new FileInputStream(_files[file]);
+        try {
+          // bytes of a line not complete yet
+          int kept = 0;
+          int read;
+          while (true) {
+            if (kept == buffer.length) {
+              buffer = Arrays.copyOf(buffer, buffer.length * 2);
+            }
+            read = input.read(buffer, kept, buffer.length - kept);
+            if (read < 0) {
+              break;
             }
-            try {
-              numViews.put(docName,
-                  numViews.get(docName) + Integer.parseInt(docNum));
-            } catch (Exception e) {
-              continue;
+            int end = kept + read;
+            int start = 0;
+            for (int i = kept; i < end; i++) {
+              if (buffer[i] == '\n') {
+                countLine(buffer, start, i);
+                start = i + 1;
+              }
             }
+            kept = end - start;
+            System.arraycopy(buffer, start, buffer, 0, kept);
           }
-          reader.close();
+          if (kept > 0) {
+            countLine(buffer, 0, kept);
+          }
+        } finally {
+          input.close();
         }
+      }
+      return _counts;
+    }
 
-        DataOutputStream writer = new DataOutputStream(
-            new BufferedOutputStream(new FileOutputStream(numViewsFile)));
-        writer.writeInt(numViews.size());
-        for (String docName : numViews.keySet()) {
-          writer.writeUTF(docName);
-          writer.writeInt(numViews.get(docName));
+    /**
+     * A line is [language] [article] [views], split on single spaces with
+     * trailing spaces dropped; any other line, or views that are not an
+     * int, are skipped.
+     */
+    private void countLine(byte[] line, int start, int end) {
+      if (end > start && line[end - 1] == '\r') {
+        end--;
+      }
+      while (end > start && line[end - 1] == ' ') {
+        end--;
+      }
+      int first = -1;
+      int second = -1;
+      for (int i = start; i < end; i++) {
+        if (line[i] == ' ') {
+          if (first < 0) {
+            first = i;
+          } else if (second < 0) {
+            second = i;
+          } else {
+            return;
+          }
+        }
+      }
+      if (second < 0) {
+        return;
+      }
+      int doc = _table.find(line, first + 1, second);
+      if (doc < 0 || _targets[doc] < 0) {
+        return;
+      }
+      long views = parseInt(line, second + 1, end);
+      if (views != Long.MIN_VALUE) {
+        _counts[_targets[doc]] += views;
+      }
+    }
+
+    // As Integer.parseInt, Long.MIN_VALUE where it would throw.
+    private static long parseInt(byte[] bytes, int start, int end) {
+      boolean negative = false;
+      if (start < end && (bytes[start] == '-' || bytes[start] == '+')) {
+        negative = bytes[start] == '-';
+        start++;
+      }
+      if (start == end) {
+        return Long.MIN_VALUE;
+      }
+      long value = 0;
+      for (int i = start; i < end; i++) {
+        int digit = bytes[i] - '0';
+        if (digit < 0 || digit > 9) {
+          return Long.MIN_VALUE;
+        }
+        value = value * 10 + digit;
+        if (value > Integer.MAX_VALUE + 1L) {
+          return Long.MIN_VALUE;
         }
-        writer.close();
       }
+      value = negative ? -value : value;
+      return value > Integer.MAX_VALUE ? Long.MIN_VALUE : value;
     }
   }
 
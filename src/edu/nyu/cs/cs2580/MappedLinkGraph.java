@@ -0,0 +1,123 @@
+package edu.nyu.cs.cs2580;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * The pageRankGraph file, mapped into memory and read in place by the
+ * PageRank iteration: the graph is never turned into heap objects, so it
+ * does not have to fit in the heap.
+ *
+ * The graph is stored by target, which is how the iteration walks it:
+ * <pre>
+ *   int magic, int nodes, long links
+ *   int outDegree[nodes]
+ *   long inLinkOffset[nodes + 1], relative to the start of the links
+ *   links: for each node, the nodes linking to it in increasing order,
+ *          vByte coded as the first node then the gaps
+ * </pre>
+ * Nodes are numbered as in {@link LinkGraph}; their names are in
+ * pageRankGraphStructure.
+ */
+class MappedLinkGraph {
+  private static final int MAGIC = 0x50524731;
+  private static final int HEADER_SIZE = 16;
+
+  private final MappedPostingFile _file;
+  private final int _size;
+  private final long _numLinks;
+  // where the in-link offsets and the links start
+  private final long _offsets;
+  private final long _links;
+
+  public MappedLinkGraph(String fileName) throws IOException {
+    _file = new MappedPostingFile(fileName);
+    if (_file.length() < HEADER_SIZE || _file.getInt(0) != MAGIC) {
+      throw new IOException("Not a PageRank graph, rerun mining: "
+          + fileName);
+    }
+    _size = _file.getInt(4);
+    _numLinks = getLong(8);
+    _offsets = HEADER_SIZE + 4L * _size;
+    _links = _offsets + 8L * (_size + 1);
+  }
+
+  public int size() {
+    return _size;
+  }
+
+  public long numLinks() {
+    return _numLinks;
+  }
+
+  public int outDegree(int node) {
+    return _file.getInt(HEADER_SIZE + 4L * node);
+  }
+
+  // Sum of share[source] over the nodes linking to node.
+  public double sumInLinks(int node, double[] share) {
+    long offset = _links + getLong(_offsets + 8L * node);
+    long end = _links + getLong(_offsets + 8L * (node + 1));
+    double sum = 0;
+    // the first node is coded as a gap from 0
+    int source = 0;
+    while (offset < end) {
+      int value = 0;
+      byte b;
+      do {
+        b = _file.getByte(offset++);
+        value = (value << 7) | (b & 0x7f);
+      } while (b >= 0);
+      source += value;
+      sum += share[source];
+    }
+    return sum;
+  }
+
+  private long getLong(long offset) {
+    return ((long) _file.getInt(offset) << 32)
+        | (_file.getInt(offset + 4) & 0xffffffffL);
+  }
+
+  // Writes graph, whose links go from source to target, in the format above.
+  public static void write(LinkGraph graph, String fileName)
+      throws IOException {
+    LinkGraph inLinks = graph.transpose();
+    int n = graph.size();
+    DataOutputStream writer = new DataOutputStream(new BufferedOutputStream(
+        new FileOutputStream(fileName)));
+    try {
+      writer.writeInt(MAGIC);
+      writer.writeInt(n);
+      writer.writeLong(graph.numLinks());
+      for (int i = 0; i < n; i++) {
+        writer.writeInt(graph.outDegree(i));
+      }
+      long offset = 0;
+      writer.writeLong(offset);
+      for (int i = 0; i < n; i++) {
+        int previous = 0;
+        int end = inLinks.linkStart(i + 1);
+        for (int k = inLinks.linkStart(i); k < end; k++) {
+          offset += IndexerInvertedCompressed.vByteLength(inLinks.target(k)
+              - previous);
+          previous = inLinks.target(k);
+        }
+        writer.writeLong(offset);
+      }
+      for (int i = 0; i < n; i++) {
+        int previous = 0;
+        int end = inLinks.linkStart(i + 1);
+        for (int k = inLinks.linkStart(i); k < end; k++) {
+          IndexerInvertedCompressed.writeVByte(writer, inLinks.target(k)
+              - previous);
+          previous = inLinks.target(k);
+        }
+      }
+    } finally {
+      writer.close();
+    }
+  }
+}
@@ -0,0 +1,108 @@
+package edu.nyu.cs.cs2580;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Read-only view of an on-disk postings file, mapped into memory once when the
+ * index is loaded for serving.
+ *
+ * A single {@link MappedByteBuffer} is limited to 2GB, so the file is mapped
+ * as a sequence of fixed size segments. Each posting list is handed out as a
+ * zero-copy slice of the segment it lives in; only the rare list straddling a
+ * segment boundary is copied onto the heap.
+ *
+ * All reads are absolute and every slice has its own position, so one instance
+ * can be shared by all serving threads.
+ */
+public class MappedPostingFile {
+  private static final int SEGMENT_BITS = 30;
+  private static final long SEGMENT_SIZE = 1L << SEGMENT_BITS;
+  private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+  private final MappedByteBuffer[] _segments;
+  private final long _length;
+
+  public MappedPostingFile(String fileName) throws IOException {
+    RandomAccessFile raf = new RandomAccessFile(fileName, "r");
+    try {
+      FileChannel channel = raf.getChannel();
+      _length = channel.size();
+      int count = (int) ((_length + SEGMENT_SIZE - 1) >>> SEGMENT_BITS);
+      _segments = new MappedByteBuffer[count];
+      for (int i = 0; i < count; i++) {
+        long start = (long) i << SEGMENT_BITS;
+        _segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start,
+            Math.min(SEGMENT_SIZE, _length - start));
+      }
+    } finally {
+      // The mapping stays valid after the channel is closed.
+      raf.close();
+    }
+  }
+
+  public long length() {
+    return _length;
+  }
+
+  /**
+   * Returns the posting list stored at {@code offset}, laid out as an int byte
+   * count followed by that many bytes.
+   */
+  public ByteBuffer getList(long offset) {
+    return slice(offset + 4, getInt(offset));
+  }
+
+  // Reads a big-endian int, as written by DataOutputStream.
+  public int getInt(long offset) {
+    int pos = position(offset);
+    ByteBuffer segment = _segments[segment(offset)];
+    if (pos + 4 <= segment.limit()) {
+      return segment.getInt(pos);
+    }
+    int value = 0;
+    for (int i = 0; i < 4; i++) {
+      value = (value << 8) | (getByte(offset + i) & 0xff);
+    }
+    return value;
+  }
+
+  public byte getByte(long offset) {
+    return _segments[segment(offset)].get(position(offset));
+  }
+
+  /**
+   * Returns a buffer over {@code length} bytes starting at {@code offset}. The
+   * returned buffer is independent of every other caller.
+   */
+  public ByteBuffer slice(long offset, int length) {
+    if (length == 0) {
+      return EMPTY.duplicate();
+    }
+    int pos = position(offset);
+    ByteBuffer segment = _segments[segment(offset)];
+    if (pos + length <= segment.limit()) {
+      ByteBuffer view = segment.duplicate();
+      view.position(pos);
+      view.limit(pos + length);
+      return view.slice();
+    }
+    // Straddles two segments, copy it out.
+    byte[] bytes = new byte[length];
+    for (int i = 0; i < length; i++) {
+      bytes[i] = getByte(offset + i);
+    }
+    return ByteBuffer.wrap(bytes);
+  }
+
+  private static int segment(long offset) {
+    return (int) (offset >>> SEGMENT_BITS);
+  }
+
+  private static int position(long offset) {
+    return (int) (offset & (SEGMENT_SIZE - 1));
+  }
+}
@@ -0,0 +1,121 @@
+package edu.nyu.cs.cs2580;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A fixed set of names looked up straight from UTF-8 bytes, so a log line
+ * can be matched against the corpus without decoding it into a String.
+ *
+ * Open addressing over an int array of name indexes, the names kept as
+ * their UTF-8 bytes. A Bloom filter of about ten bits per name sits in front
+ * of it: small enough to stay in cache, it turns away all but a percent or
+ * two of the names that are not in the table after hashing them once,
+ * before any probe of the table or byte comparison. Safe to share between
+ * threads once built.
+ */
+class NameTable {
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  private final byte[][] _names;
+  // index into _names, -1 for an empty slot
+  private final int[] _slots;
+  private final int _mask;
+  // Bloom filter bits, BLOOM_PROBES per name
+  private final long[] _bloom;
+  private final int _bloomMask;
+
+  private static final int BLOOM_BITS_PER_NAME = 10;
+  private static final int BLOOM_PROBES = 3;
+
+  public NameTable(List<String> names) {
+    _names = new byte[names.size()][];
+    int capacity = 2;
+    while (capacity < names.size() * 2) {
+      capacity <<= 1;
+    }
+    _slots = new int[capacity];
+    _mask = capacity - 1;
+    Arrays.fill(_slots, -1);
+    int bits = 64;
+    while (bits < (long) names.size() * BLOOM_BITS_PER_NAME) {
+      bits <<= 1;
+    }
+    _bloom = new long[bits >>> 6];
+    _bloomMask = bits - 1;
+    for (int i = 0; i < _names.length; i++) {
+      _names[i] = names.get(i).getBytes(UTF8);
+      long hash = hash(_names[i], 0, _names[i].length);
+      int probe = (int) (hash >>> 32);
+      int step = (int) hash | 1;
+      for (int k = 0; k < BLOOM_PROBES; k++) {
+        int bit = (probe + k * step) & _bloomMask;
+        _bloom[bit >>> 6] |= 1L << bit;
+      }
+      int slot = (int) hash & _mask;
+      while (_slots[slot] >= 0) {
+        slot = (slot + 1) & _mask;
+      }
+      _slots[slot] = i;
+    }
+  }
+
+  public int size() {
+    return _names.length;
+  }
+
+  /**
+   * Index in the list given to the constructor of the name spelled by
+   * bytes[start, end), -1 if it is not there.
+   */
+  public int find(byte[] bytes, int start, int end) {
+    long hash = hash(bytes, start, end);
+    int probe = (int) (hash >>> 32);
+    int step = (int) hash | 1;
+    for (int k = 0; k < BLOOM_PROBES; k++) {
+      int bit = (probe + k * step) & _bloomMask;
+      if ((_bloom[bit >>> 6] & (1L << bit)) == 0) {
+        return -1;
+      }
+    }
+    int slot = (int) hash & _mask;
+    int index;
+    while ((index = _slots[slot]) >= 0) {
+      if (equals(_names[index], bytes, start, end)) {
+        return index;
+      }
+      slot = (slot + 1) & _mask;
+    }
+    return -1;
+  }
+
+  public int find(String name) {
+    byte[] bytes = name.getBytes(UTF8);
+    return find(bytes, 0, bytes.length);
+  }
+
+  private static boolean equals(byte[] name, byte[] bytes, int start,
+      int end) {
+    if (name.length != end - start) {
+      return false;
+    }
+    for (int i = 0; i < name.length; i++) {
+      if (name[i] != bytes[start + i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  // 64 bit FNV-1a, mixed so every bit depends on every byte. One hash
+  // serves both the table slot and the Bloom filter bits.
+  static long hash(byte[] bytes, int start, int end) {
+    long hash = 0xcbf29ce484222325L;
+    for (int i = start; i < end; i++) {
+      hash = (hash ^ (bytes[i] & 0xff)) * 0x100000001b3L;
+    }
+    hash = (hash ^ (hash >>> 33)) * 0xff51afd7ed558ccdL;
+    return hash ^ (hash >>> 33);
+  }
+}
@@ -0,0 +1,94 @@
+package edu.nyu.cs.cs2580;
+
+/**
+ * Forward-only cursor over the posting list of one term.
+ *
+ * A positional list holds one (docid, offset) pair per occurrence, so the
+ * pairs of one document are adjacent. A non-positional list holds one
+ * (docid, frequency) pair per document.
+ *
+ * Each query gets its own iterators through {@link QueryCursor}, which is what
+ * keeps the indexers free of per-query state.
+ */
+public abstract class PostingIterator {
+
+  public abstract boolean isPositional();
+
+  /**
+   * Returns the current docid, or -1 once the list is exhausted.
+   */
+  public abstract int docid();
+
+  /**
+   * Moves to the first document whose id is at least {@code docid} and returns
+   * it, or -1 if no such document exists. The iterator never moves backwards,
+   * if it is already there it stays where it is.
+   */
+  public abstract int skipTo(int docid);
+
+  /**
+   * Moves to the first document after {@code docid} and returns it, or -1 if
+   * no such document exists.
+   */
+  public int next(int docid) {
+    return skipTo(docid + 1);
+  }
+
+  /**
+   * Number of times the term appears in the current document.
+   */
+  public abstract int frequency();
+
+  /**
+   * Returns the first position after {@code pos} in the current document, or
+   * -1 if there is none. Only meaningful for positional lists.
+   */
+  public abstract int nextPosition(int pos);
+
+  /**
+   * Copies the {@link #frequency()} positions of the term in the current
+   * document, ascending, to the start of {@code buffer} and returns it, or
+   * returns a larger array holding them if they do not fit. Only meaningful
+   * for positional lists.
+   *
+   * Phrase matching reads a document's positions once through this instead
+   * of one {@link #nextPosition} call per position, the subclasses copy them
+   * straight out of their decoded block.
+   */
+  public int[] positions(int[] buffer) {
+    int frequency = frequency();
+    if (buffer.length < frequency) {
+      buffer = new int[Math.max(frequency, buffer.length * 2)];
+    }
+    int pos = -1;
+    for (int i = 0; i < frequency; i++) {
+      pos = nextPosition(pos);
+      buffer[i] = pos;
+    }
+    return buffer;
+  }
+
+  /**
+   * Largest frequency of the term in the documents of the block holding the
+   * current document, or -1 if the list keeps no per block bounds.
+   */
+  public int blockMaxFrequency() {
+    return -1;
+  }
+
+  /**
+   * Smallest length of the documents of the block holding the current
+   * document, 1 if the list keeps no per block bounds.
+   */
+  public int blockMinLength() {
+    return 1;
+  }
+
+  /**
+   * Last docid of the block holding the current document, the current docid
+   * if the list keeps no per block bounds.
+   */
+  public int blockLastDocid() {
+    return docid();
+  }
+}
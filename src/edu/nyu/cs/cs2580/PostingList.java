@@ -0,0 +1,135 @@
+package edu.nyu.cs.cs2580;
+
+import java.util.Arrays;
+
+/**
+ * A posting list backed by a primitive int array.
+ *
+ * The meaning of the entries is up to the indexer: the positional indexers
+ * store (docid, offset) pairs, one per occurrence, while the doc-only indexer
+ * stores (docid, frequency) pairs, one per document. Either way an entry costs
+ * four bytes instead of a boxed Integer plus a reference.
+ *
+ * Lists are immutable once built, use {@link PostingList.Builder} to grow one
+ * while indexing.
+ */
+public class PostingList {
+  private static final int INITIAL_CAPACITY = 8;
+
+  private final int[] _postings;
+  private final int _size;
+
+  public PostingList(int[] postings, int size) {
+    _postings = postings;
+    _size = size;
+  }
+
+  public int size() {
+    return _size;
+  }
+
+  public boolean isEmpty() {
+    return _size == 0;
+  }
+
+  public int get(int index) {
+    return _postings[index];
+  }
+
+  /**
+   * Index of the first pair at or after index {@code from} whose first value
+   * is at least {@code value}, or {@link #size()} if there is none.
+   */
+  public int seekPair(int from, int value) {
+    return gallop(_postings, from, _size, 2, value);
+  }
+
+  /**
+   * Index of the first of values[from], values[from + stride], ... below
+   * {@code size} that is at least {@code target}, or the first index past
+   * them if there is none. The values looked at must be ascending.
+   *
+   * Probes from, then 1, 2, 4, ... strides past it, then binary searches the
+   * last gap, so the cost grows with the log of the distance moved rather
+   * than of what is left of the array. Cursors mostly move a short way.
+   */
+  static int gallop(int[] values, int from, int size, int stride, int target) {
+    if (from >= size || values[from] >= target) {
+      return from;
+    }
+    int count = (size - from + stride - 1) / stride;
+    // values[from + low * stride] is always below target
+    int low = 0;
+    int step = 1;
+    while (low + step < count
+        && values[from + (low + step) * stride] < target) {
+      low += step;
+      step <<= 1;
+    }
+    int high = Math.min(low + step, count);
+    low++;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (values[from + mid * stride] < target) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return from + low * stride;
+  }
+
+  /**
+   * Growable primitive list used while a partial index is held in memory.
+   */
+  public static class Builder {
+    private int[] _postings;
+    private int _size = 0;
+
+    public Builder() {
+      this(INITIAL_CAPACITY);
+    }
+
+    public Builder(int capacity) {
+      _postings = new int[Math.max(capacity, 1)];
+    }
+
+    public void add(int value) {
+      if (_size == _postings.length) {
+        _postings = Arrays.copyOf(_postings, _size * 2);
+      }
+      _postings[_size++] = value;
+    }
+
+    public int get(int index) {
+      return _postings[index];
+    }
+
+    public void set(int index, int value) {
+      _postings[index] = value;
+    }
+
+    // As {@link PostingList#seekPair}.
+    public int seekPair(int from, int value) {
+      return gallop(_postings, from, _size, 2, value);
+    }
+
+    public int size() {
+      return _size;
+    }
+
+    public int capacity() {
+      return _postings.length;
+    }
+
+    // Empties the builder but keeps its storage for reuse.
+    public void clear() {
+      _size = 0;
+    }
+
+    // The builder must not be used after the list is built.
+    public PostingList build() {
+      return new PostingList(_postings, _size);
+    }
+  }
+}
@@ -0,0 +1,81 @@
+package edu.nyu.cs.cs2580;
+
+import java.util.Arrays;
+
+/**
+ * {@link PostingIterator} over a posting list already decoded into memory.
+ */
+public class PostingListIterator extends PostingIterator {
+  private final PostingList _list;
+  private final boolean _positional;
+
+  // Index of the first pair of the current document.
+  private int _index = 0;
+
+  public PostingListIterator(PostingList list, boolean positional) {
+    _list = list;
+    _positional = positional;
+  }
+
+  @Override
+  public boolean isPositional() {
+    return _positional;
+  }
+
+  @Override
+  public int docid() {
+    return _index < _list.size() ? _list.get(_index) : -1;
+  }
+
+  @Override
+  public int skipTo(int docid) {
+    _index = _list.seekPair(_index, docid);
+    return docid();
+  }
+
+  @Override
+  public int frequency() {
+    if (_index >= _list.size()) {
+      return 0;
+    }
+    if (!_positional) {
+      return _list.get(_index + 1);
+    }
+    int docid = _list.get(_index);
+    int i = _index;
+    while (i < _list.size() && _list.get(i) == docid) {
+      i += 2;
+    }
+    return (i - _index) / 2;
+  }
+
+  @Override
+  public int nextPosition(int pos) {
+    if (!_positional || _index >= _list.size()) {
+      return -1;
+    }
+    int docid = _list.get(_index);
+    for (int i = _index; i < _list.size() && _list.get(i) == docid; i += 2) {
+      if (_list.get(i + 1) > pos) {
+        return _list.get(i + 1);
+      }
+    }
+    return -1;
+  }
+
+  @Override
+  public int[] positions(int[] buffer) {
+    if (!_positional || _index >= _list.size()) {
+      return buffer;
+    }
+    int docid = _list.get(_index);
+    int count = 0;
+    for (int i = _index; i < _list.size() && _list.get(i) == docid; i += 2) {
+      if (count == buffer.length) {
+        buffer = Arrays.copyOf(buffer, Math.max(count * 2, 8));
+      }
+      buffer[count++] = _list.get(i + 1);
+    }
+    return buffer;
+  }
+}
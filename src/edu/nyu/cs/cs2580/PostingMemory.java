@@ -0,0 +1,47 @@
+package edu.nyu.cs.cs2580;
+
+/**
+ * Keeps count of the memory taken by the posting lists an indexer buffers
+ * before spilling them to a partial run, and tells when the budget is used
+ * up.
+ *
+ * The count is an estimate: the int arrays of the builders as allocated,
+ * plus a fixed charge per term for the builder, its map entry and the boxed
+ * term id. Spilling on it rather than every so many documents lets the run
+ * size follow the corpus: short documents make few large runs and a run of
+ * huge pages is written out before it exhausts the heap.
+ */
+class PostingMemory {
+  // PostingList.Builder object, HashMap entry and boxed Integer key
+  private static final int BUILDER_OVERHEAD = 96;
+
+  private final long _budget;
+  private long _used = 0;
+
+  public PostingMemory(long budget) {
+    _budget = budget;
+  }
+
+  // A builder was created for a term not yet buffered.
+  public void added(PostingList.Builder builder) {
+    _used += BUILDER_OVERHEAD + 4L * builder.capacity();
+  }
+
+  // A buffered builder went from oldCapacity to its current capacity.
+  public void grown(PostingList.Builder builder, int oldCapacity) {
+    _used += 4L * (builder.capacity() - oldCapacity);
+  }
+
+  public boolean isFull() {
+    return _used >= _budget;
+  }
+
+  public long used() {
+    return _used;
+  }
+
+  // The buffered postings were handed off.
+  public void reset() {
+    _used = 0;
+  }
+}
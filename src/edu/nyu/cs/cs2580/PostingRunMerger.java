@@ -0,0 +1,128 @@
+package edu.nyu.cs.cs2580;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Streams the partial posting runs spilled while indexing back in term id
+ * order.
+ *
+ * A run is a sequence of (int term id, int byte length, postings) sorted by
+ * term id. The head of every run sits in a priority queue keyed on (term id,
+ * run number), so collecting a term only touches the runs that hold it and
+ * the whole merge costs one heap operation per run entry, instead of a pass
+ * over all runs for every term. Postings are copied as whole byte ranges.
+ *
+ * Runs are merged in run order for equal term ids, which is docid order.
+ */
+class PostingRunMerger {
+  private static final int BUFFER_SIZE = 1 << 16;
+
+  // One run and the header of its current entry.
+  private static class Run {
+    final int _number;
+    final DataInputStream _reader;
+    int _remaining;
+    int _termId;
+    int _size;
+
+    Run(int number, String fileName, int terms) throws IOException {
+      _number = number;
+      _reader = new DataInputStream(new BufferedInputStream(
+          new FileInputStream(fileName), BUFFER_SIZE));
+      _remaining = terms;
+    }
+
+    // Reads the header of the next entry, false at the end of the run.
+    boolean advance() throws IOException {
+      if (_remaining == 0) {
+        return false;
+      }
+      _remaining--;
+      _termId = _reader.readInt();
+      _size = _reader.readInt();
+      return true;
+    }
+  }
+
+  private final Run[] _runs;
+  private final PriorityQueue<Run> _heads;
+  private byte[] _buffer = new byte[BUFFER_SIZE];
+
+  /**
+   * @param files the run files, in the order they were written
+   * @param terms the number of entries of each run
+   */
+  public PostingRunMerger(List<String> files, List<Integer> terms)
+      throws IOException {
+    _runs = new Run[files.size()];
+    _heads = new PriorityQueue<Run>(Math.max(1, _runs.length),
+        new Comparator<Run>() {
+          @Override
+          public int compare(Run a, Run b) {
+            if (a._termId != b._termId) {
+              return a._termId < b._termId ? -1 : 1;
+            }
+            return a._number - b._number;
+          }
+        });
+    for (int i = 0; i < _runs.length; i++) {
+      _runs[i] = new Run(i, files.get(i), terms.get(i));
+      if (_runs[i].advance()) {
+        _heads.add(_runs[i]);
+      }
+    }
+  }
+
+  /**
+   * Drops every entry below {@code termId} without reading its postings.
+   */
+  public void skipTo(int termId) throws IOException {
+    while (!_heads.isEmpty() && _heads.peek()._termId < termId) {
+      Run run = _heads.poll();
+      int skipped = 0;
+      while (skipped < run._size) {
+        int bytes = run._reader.skipBytes(run._size - skipped);
+        if (bytes <= 0) {
+          throw new EOFException("Truncated posting run " + run._number);
+        }
+        skipped += bytes;
+      }
+      if (run.advance()) {
+        _heads.add(run);
+      }
+    }
+  }
+
+  /**
+   * Appends the postings of {@code termId} from every run to {@code out}.
+   * Terms must be asked for in increasing order.
+   */
+  public void copyTerm(int termId, ByteArrayOutputStream out)
+      throws IOException {
+    while (!_heads.isEmpty() && _heads.peek()._termId == termId) {
+      Run run = _heads.poll();
+      if (run._size > _buffer.length) {
+        _buffer = new byte[Math.max(run._size, _buffer.length * 2)];
+      }
+      run._reader.readFully(_buffer, 0, run._size);
+      out.write(_buffer, 0, run._size);
+      if (run.advance()) {
+        _heads.add(run);
+      }
+    }
+  }
+
+  public void close() throws IOException {
+    for (Run run : _runs) {
+      run._reader.close();
+    }
+  }
+}
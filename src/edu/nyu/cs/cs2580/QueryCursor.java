@@ -0,0 +1,61 @@
+package edu.nyu.cs.cs2580;
+
+/**
+ * Per-request traversal state for one query, obtained through
+ * {@link Indexer#getQueryCursor(Query)}.
+ *
+ * The indexers are read-only once loaded, everything that moves while a query
+ * is evaluated lives in the cursor. A cursor must only be used by the thread
+ * serving the request it was created for, while any number of cursors can run
+ * over the same indexer concurrently.
+ */
+public abstract class QueryCursor {
+
+  /**
+   * Returns the next Document after {@code docid} satisfying the query, or
+   * null if no such document exists. Callers pass increasing docids.
+   */
+  public abstract Document nextDoc(int docid);
+
+  /**
+   * Like {@link #nextDoc(int)} but returns only the docid, -1 if there is no
+   * such document, so a ranker can decide whether the document is worth
+   * building before {@link Indexer#getDoc(int)}.
+   */
+  public int nextDocid(int docid) {
+    Document doc = nextDoc(docid);
+    return doc == null ? -1 : doc._docid;
+  }
+
+  /**
+   * Number of times {@code term} appeared in the document {@code docid},
+   * cheap for the document last returned by {@link #nextDoc(int)}.
+   */
+  public abstract int documentTermFrequency(String term, int docid);
+
+  /**
+   * Largest frequency of {@code term} in the posting block holding the
+   * document last returned, or -1 if the lists keep no per block bounds.
+   */
+  public int blockMaxFrequency(String term) {
+    return -1;
+  }
+
+  /**
+   * Smallest document length in the posting block of {@code term} holding
+   * the document last returned, 1 if the lists keep no per block bounds.
+   */
+  public int blockMinLength(String term) {
+    return 1;
+  }
+
+  /**
+   * Largest docid up to which every query term stays in the block holding
+   * {@code docid}, the document last returned. The block ceilings above hold
+   * for every document up to it, so a ranker whose ceiling can not make the
+   * results may continue from there. {@code docid} if unknown.
+   */
+  public int blockLastDocid(int docid) {
+    return docid;
+  }
+}
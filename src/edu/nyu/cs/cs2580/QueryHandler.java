@@ -51,6 +51,10 @@ class QueryHandler implements HttpHandler {
 
     private int _page = 1;
 
+    // Skip documents whose score bound can not make the results, the
+    // rankers that support it return the same results either way.
+    public boolean _pruning = false;
+
     // The type of the ranker we will be using.
     public enum RankerType {
       NONE, FULLSCAN, CONJUNCTIVE, FAVORITE, COSINE, PHRASE, QL, LINEAR, COMPREHENSIVE, NUMVIEW,
@@ -136,6 +140,12 @@ class QueryHandler implements HttpHandler {
           } catch (IllegalArgumentException e) {
             // Ignored, search engine should never fail upon invalid user input.
           }
+        } else if (key.equals("pruning")) {
+          if (val.equalsIgnoreCase("true")) {
+            _pruning = true;
+          } else if (val.equalsIgnoreCase("false")) {
+            _pruning = false;
+          }
         } else if (key.equals("page")) {
           try {
             _page = Integer.parseInt(val);
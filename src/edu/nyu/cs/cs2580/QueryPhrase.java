@@ -1,6 +1,8 @@
 package edu.nyu.cs.cs2580;
 
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Scanner;
 import java.util.Set;
 import java.util.Vector;
@@ -9,11 +11,34 @@ import java.util.Vector;
  * @CS2580: implement this class for HW2 to handle phrase. If the raw query is
  *          ["new york city"], the presence of the phrase "new york city" must
  *          be recorded here and be used in indexing and ranking.
+ *
+ * A closing quote may be followed by an operator that loosens the phrase:
+ * ["new york"~3] is a proximity match, the terms in order, each at most 3
+ * positions after the one before it. ["new york"@5] is a window match, the
+ * terms in any order, all within 5 consecutive positions. A plain phrase is
+ * the proximity match with distance 1.
  */
 public class QueryPhrase extends Query {
 
+  /**
+   * A quoted phrase of two or more terms and how close the terms must be.
+   */
+  public static class Phrase {
+    public final String[] _terms;
+    // true for a proximity match, false for a window match
+    public final boolean _ordered;
+    public final int _width;
+
+    public Phrase(String[] terms, boolean ordered, int width) {
+      _terms = terms;
+      _ordered = ordered;
+      _width = width;
+    }
+  }
+
   //uniq term vector
   private Vector<String> _uniqTermVector = null;
+  private final List<Phrase> _phrases = new ArrayList<Phrase>();
 
   public QueryPhrase(String query) {
     super(query);
@@ -30,6 +55,7 @@ public class QueryPhrase extends Query {
       return;
     }
     this._tokens.clear();
+    _phrases.clear();
     boolean quote = false;
     boolean word = false;
     int quoteCount = 0;
@@ -50,7 +76,7 @@ public class QueryPhrase extends Query {
               quoteCount--;
               if (quoteCount == 0 && word) {
                 quote = false;
-                putPhraseIntoVector(_query.substring(p1, p2).trim());
+                putPhraseIntoVector(_query.substring(p1, p2).trim(), "");
                 p1 = p2 + 1;
                 word = false;
               }
@@ -67,13 +93,16 @@ public class QueryPhrase extends Query {
               }
             } else {
               if (word) {
+                int end = operatorEnd(p2 + 1);
                 if (_query.charAt(p2 + 1) == ' '
-                    || _query.charAt(p2 + 1) == '\"') {
+                    || _query.charAt(p2 + 1) == '\"' || end > p2 + 1) {
                   quoteCount--;
                   if (quoteCount == 0) {
                     quote = false;
-                    putPhraseIntoVector(_query.substring(p1, p2).trim());
-                    p1 = p2 + 1;
+                    putPhraseIntoVector(_query.substring(p1, p2).trim(),
+                        _query.substring(p2 + 1, end));
+                    p1 = end;
+                    p2 = end - 1;
                     word = false;
                   }
                 } else if (_query.charAt(p2 - 1) == ' '
@@ -121,8 +150,30 @@ public class QueryPhrase extends Query {
     s.close();
   }
 
-  /* parse phrase into vector */
-  private void putPhraseIntoVector(String str) {
+  /**
+   * End of the ~N or @N operator starting at start, which must be followed by
+   * a space, a quote or the end of the query; start if there is none.
+   */
+  private int operatorEnd(int start) {
+    int len = _query.length();
+    if (start >= len
+        || (_query.charAt(start) != '~' && _query.charAt(start) != '@')) {
+      return start;
+    }
+    int end = start + 1;
+    while (end < len && end - start <= 9
+        && Character.isDigit(_query.charAt(end))) {
+      end++;
+    }
+    if (end == start + 1 || (end < len && _query.charAt(end) != ' '
+        && _query.charAt(end) != '\"')) {
+      return start;
+    }
+    return end;
+  }
+
+  /* parse phrase into vector, operator is "", ~N or @N */
+  private void putPhraseIntoVector(String str, String operator) {
     if (str.equals("")) {
       return;
     }
@@ -150,8 +201,23 @@ public class QueryPhrase extends Query {
       term = stemmer.toString();
       bf.append(term).append(" ");
     }
-    _tokens.add(bf.toString().trim());
+    String phrase = bf.toString().trim();
+    _tokens.add(phrase);
     s.close();
+
+    String[] terms = phrase.split(" +");
+    if (terms.length > 1) {
+      int width = operator.isEmpty() ? 1 : Math.max(
+          Integer.parseInt(operator.substring(1)), 1);
+      _phrases.add(new Phrase(terms, !operator.startsWith("@"), width));
+    }
+  }
+
+  /**
+   * The phrases of the query, in order.
+   */
+  public List<Phrase> getPhrases() {
+    return _phrases;
   }
 
   /**
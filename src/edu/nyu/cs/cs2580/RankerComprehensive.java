@@ -1,8 +1,5 @@
 package edu.nyu.cs.cs2580;
 
-import java.util.Collections;
-import java.util.PriorityQueue;
-import java.util.Queue;
 import java.util.Vector;
 
 import edu.nyu.cs.cs2580.QueryHandler.CgiArguments;
@@ -32,57 +29,201 @@ public class RankerComprehensive extends Ranker {
 
   @Override
   public Vector<ScoredDocument> runQuery(Query query, int numResults, int page) {
-    Queue<ScoredDocument> rankQueue = new PriorityQueue<ScoredDocument>();
+    TopDocuments rankQueue = new TopDocuments(numResults, page);
+    QueryCursor cursor = _indexer.getQueryCursor(query);
+    Vector<String> phrases = ((QueryPhrase) query).getTermVector();
+    if (_arguments._pruning && hasBounds(phrases)) {
+      // the hot tier first, the whole index only if a document outside the
+      // tier could still make the results
+      QueryCursor tier = _indexer.getTierCursor(query);
+      if (tier != null) {
+        runPruned(phrases, tier, rankQueue, false);
+        double ceiling = BASE_BETA * anyCeiling(phrases, true) + PAGERANK_BETA
+            * Math.sqrt(_indexer.maxPageRankOutsideTier() + 1) + NUMVIEW_BETA
+            * Math.log(_indexer.maxNumViewsOutsideTier() + 1) / LOG2_BASE;
+        if (rankQueue.isFull() && !rankQueue.admits(-1, ceiling)) {
+          return rankQueue.results();
+        }
+      }
+      runPruned(phrases, cursor, rankQueue, tier != null);
+      return rankQueue.results();
+    }
+
     Document doc = null;
     int docid = -1;
-
-    while ((doc = _indexer.nextDoc(query, docid)) != null) {
-      ScoredDocument sdoc = scoreDocument(query, doc);
+    while ((doc = cursor.nextDoc(docid)) != null) {
+      ScoredDocument sdoc = scoreDocument(query, doc, cursor);
       if (sdoc != null) {
         rankQueue.add(sdoc);
-        if (rankQueue.size() > numResults * page) {
-          rankQueue.poll();
-        }
       }
       docid = doc._docid;
     }
+    return rankQueue.results();
+  }
 
-    Vector<ScoredDocument> results = new Vector<ScoredDocument>();
-    ScoredDocument scoredDoc = null;
-    int resultSize = rankQueue.size() - (numResults * (page - 1));
-    while ((scoredDoc = rankQueue.poll()) != null && results.size() < resultSize) {
-      results.add(scoredDoc);
+  private boolean hasBounds(Vector<String> phrases) {
+    for (String term : phrases) {
+      if (_indexer.maxTermFrequency(term) < 0) {
+        return false;
+      }
     }
-    Collections.sort(results, Collections.reverseOrder());
-    return results;
+    return true;
   }
 
-  private ScoredDocument scoreDocument(Query query, Document doc) {
-    double score = 0.0;
-    double probability = 0;
-    if (((DocumentIndexed) doc).getLength() == 0) {
+  /**
+   * Scores the same documents as runQuery, skipping those that can not make
+   * the results, as in {@link RankerFavorite}. The ceiling mixes the query
+   * likelihood ceiling with the largest page rank and numviews of the
+   * documents from the current one on when passing over blocks, and with the
+   * page rank and numviews of the document, read without building the
+   * Document, when checking it alone.
+   *
+   * Once not even the best query likelihood of any document with those
+   * largest page rank and numviews can make the results, no later document
+   * can and the scan stops. With docid_order: quality the largest values
+   * fall quickly with the docid, so it stops well before the end of the
+   * lists.
+   *
+   * With skipTier the documents of the hot tier are left out, they have
+   * already been scored from the tier.
+   */
+  private void runPruned(Vector<String> phrases, QueryCursor cursor,
+      TopDocuments rankQueue, boolean skipTier) {
+    int size = phrases.size();
+    int[] maxFrequency = new int[size];
+    // the ratio ceilings rounded up as in RankerFavorite
+    double[] ratioCeiling = new double[size];
+    double[] background = new double[size];
+    for (int i = 0; i < size; i++) {
+      String term = phrases.get(i);
+      maxFrequency[i] = _indexer.maxTermFrequency(term);
+      ratioCeiling[i] = TopDocuments.roundUp((1 - LAMBDA)
+          * _indexer.maxTermRatio(term));
+      background[i] = LAMBDA * _indexer.corpusTermFrequency(term)
+          / _indexer._totalTermFrequency;
+    }
+    boolean staticBounds = _indexer.maxPageRank(0) >= 0
+        && _indexer.maxNumViews(0) >= 0;
+    double anyCeiling = anyCeiling(phrases, false);
+
+    // the term frequency ceilings in the current blocks
+    int[] frequency = new int[size];
+    int docid = -1;
+    while ((docid = cursor.nextDocid(docid)) != -1) {
+      if (skipTier && _indexer.inTier(docid)) {
+        continue;
+      }
+      // same operations as score() with larger frequencies and smaller
+      // lengths or the rounded up ratio ceilings, so the rounding can not
+      // take the real score above them
+      if (rankQueue.isFull()) {
+        float maxPageRank = _indexer.maxPageRank(docid);
+        int maxNumViews = _indexer.maxNumViews(docid);
+        double ceiling = BASE_BETA * anyCeiling + PAGERANK_BETA
+            * Math.sqrt(maxPageRank + 1) + NUMVIEW_BETA
+            * Math.log(maxNumViews + 1) / LOG2_BASE;
+        if (staticBounds && !rankQueue.admits(docid, ceiling)) {
+          break;
+        }
+
+        ceiling = 0.0;
+        for (int i = 0; i < size; i++) {
+          String term = phrases.get(i);
+          frequency[i] = cursor.blockMaxFrequency(term);
+          if (frequency[i] < 0) {
+            frequency[i] = maxFrequency[i];
+          }
+          double probability = Math.min((1 - LAMBDA) * frequency[i]
+              / cursor.blockMinLength(term), ratioCeiling[i])
+              + background[i];
+          ceiling += Math.log(probability) / LOG2_BASE;
+        }
+        ceiling = BASE_BETA * ceiling + PAGERANK_BETA
+            * Math.sqrt(maxPageRank + 1) + NUMVIEW_BETA
+            * Math.log(maxNumViews + 1) / LOG2_BASE;
+        if (staticBounds && !rankQueue.admits(docid, ceiling)) {
+          docid = cursor.blockLastDocid(docid);
+          continue;
+        }
+      }
+      int length = _indexer.documentLength(docid);
+      if (length == 0) {
+        continue;
+      }
+      float pageRank = _indexer.documentPageRank(docid);
+      int numViews = _indexer.documentNumViews(docid);
+      if (rankQueue.isFull()) {
+        double ceiling = 0.0;
+        for (int i = 0; i < size; i++) {
+          double probability = Math.min((1 - LAMBDA) * frequency[i]
+              / length, ratioCeiling[i]) + background[i];
+          ceiling += Math.log(probability) / LOG2_BASE;
+        }
+        ceiling = BASE_BETA * ceiling + PAGERANK_BETA
+            * Math.sqrt(pageRank + 1) + NUMVIEW_BETA
+            * Math.log(numViews + 1) / LOG2_BASE;
+        if (!rankQueue.admits(docid, ceiling)) {
+          continue;
+        }
+      }
+      double score = score(phrases, docid, length, pageRank, numViews,
+          cursor);
+      if (score != 0.0) {
+        rankQueue.add(new ScoredDocument(_indexer.getDoc(docid), score));
+      }
+    }
+  }
+
+  // The query likelihood ceiling of any document, or of any document outside
+  // the hot tier, computed as in score() with the ratio ceilings rounded up.
+  private double anyCeiling(Vector<String> phrases, boolean outsideTier) {
+    double ceiling = 0.0;
+    for (String term : phrases) {
+      double ratio = outsideTier ? _indexer.maxTermRatioOutsideTier(term)
+          : _indexer.maxTermRatio(term);
+      double probability = TopDocuments.roundUp((1 - LAMBDA) * ratio)
+          + LAMBDA * _indexer.corpusTermFrequency(term)
+          / _indexer._totalTermFrequency;
+      ceiling += Math.log(probability) / LOG2_BASE;
+    }
+    return ceiling;
+  }
+
+  private ScoredDocument scoreDocument(Query query, Document doc,
+      QueryCursor cursor) {
+    int length = ((DocumentIndexed) doc).getLength();
+    if (length == 0) {
       return null;
     }
 
-    Vector<String> phrases = ((QueryPhrase) query).getTermVector();
+    double score = score(((QueryPhrase) query).getTermVector(), doc._docid,
+        length, doc.getPageRank(), doc.getNumViews(), cursor);
+    if (score == 0.0) {
+      return null;
+    } else {
+      return new ScoredDocument(doc, score);
+    }
+  }
+
+  // Score of docid, whose length is not 0.
+  private double score(Vector<String> phrases, int docid, int length,
+      float pageRank, int numViews, QueryCursor cursor) {
+    double score = 0.0;
+    double probability = 0;
     for (String term : phrases) {
       probability = (1 - LAMBDA)
-          * _indexer.documentTermFrequency(term, doc._docid)
-          / ((DocumentIndexed) doc).getLength() + LAMBDA
+          * cursor.documentTermFrequency(term, docid)
+          / length + LAMBDA
           * _indexer.corpusTermFrequency(term) / _indexer._totalTermFrequency;
       score += Math.log(probability) / LOG2_BASE;
     }
 
     if (score != 0.0) {
       score = BASE_BETA * score + PAGERANK_BETA
-          * Math.sqrt(doc.getPageRank() + 1) + NUMVIEW_BETA
-          * Math.log(doc.getNumViews() + 1) / LOG2_BASE;
-    }
-    if (score == 0.0) {
-      return null;
-    } else {
-      return new ScoredDocument(doc, score);
+          * Math.sqrt(pageRank + 1) + NUMVIEW_BETA
+          * Math.log(numViews + 1) / LOG2_BASE;
     }
+    return score;
   }
 
   @Override
@@ -90,8 +231,9 @@ public class RankerComprehensive extends Ranker {
     ScoredDocument results = null;
     Document doc = null;
     int docid = -1;
-    while ((doc = _stackIndexer.nextDoc(query, docid)) != null) {
-      ScoredDocument sdoc = scoreStackDocument(query, doc);
+    QueryCursor cursor = _stackIndexer.getQueryCursor(query);
+    while ((doc = cursor.nextDoc(docid)) != null) {
+      ScoredDocument sdoc = scoreStackDocument(query, doc, cursor);
       if (sdoc != null) {
         //only need the best results
         if (sdoc.compareTo(results) == 1) {
@@ -113,7 +255,8 @@ public class RankerComprehensive extends Ranker {
     }
   }
 
-  private ScoredDocument scoreStackDocument(Query query, Document doc) {
+  private ScoredDocument scoreStackDocument(Query query, Document doc,
+      QueryCursor cursor) {
     double score = 0.0;
     double probability = 0;
     int length = ((DocumentStackOverFlow) doc).getLength();
@@ -124,7 +267,7 @@ public class RankerComprehensive extends Ranker {
     Vector<String> phrases = ((QueryPhrase) query).getTermVector();
     for (String term : phrases) {
       probability = (1 - LAMBDA)
-          * _stackIndexer.documentTermFrequency(term, doc._docid) / length
+          * cursor.documentTermFrequency(term, doc._docid) / length
           + LAMBDA * _stackIndexer.corpusTermFrequency(term)
           / _stackIndexer._totalTermFrequency;
       score += Math.log(probability) / LOG2_BASE;
@@ -26,7 +26,8 @@ public class RankerConjunctive extends Ranker {
     Queue<ScoredDocument> rankQueue = new PriorityQueue<ScoredDocument>();
     Document doc = null;
     int docid = -1;
-    while ((doc = _indexer.nextDoc(query, docid)) != null) {
+    QueryCursor cursor = _indexer.getQueryCursor(query);
+    while ((doc = cursor.nextDoc(docid)) != null) {
       rankQueue.add(new ScoredDocument(doc, 1.0));
       if (rankQueue.size() > numResults * page) {
         rankQueue.poll();
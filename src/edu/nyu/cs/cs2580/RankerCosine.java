@@ -43,8 +43,9 @@ public class RankerCosine extends Ranker {
     Queue<ScoredDocument> rankQueue = new PriorityQueue<ScoredDocument>();
     Document doc = null;
     int docid = -1;
+    QueryCursor cursor = _indexer.getQueryCursor(query);
 
-    while ((doc = _indexer.nextDoc(query, docid)) != null) {
+    while ((doc = cursor.nextDoc(docid)) != null) {
       ScoredDocument sdoc = scoreDocument(qvm, doc);
       
       if (sdoc != null) {
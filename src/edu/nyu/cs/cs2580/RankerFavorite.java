@@ -1,8 +1,5 @@
 package edu.nyu.cs.cs2580;
 
-import java.util.Collections;
-import java.util.PriorityQueue;
-import java.util.Queue;
 import java.util.Vector;
 
 import edu.nyu.cs.cs2580.QueryHandler.CgiArguments;
@@ -26,52 +23,137 @@ public class RankerFavorite extends Ranker {
 
   @Override
   public Vector<ScoredDocument> runQuery(Query query, int numResults, int page) {
-    Queue<ScoredDocument> rankQueue = new PriorityQueue<ScoredDocument>();
+    TopDocuments rankQueue = new TopDocuments(numResults, page);
+    QueryCursor cursor = _indexer.getQueryCursor(query);
+    Vector<String> phrases = ((QueryPhrase) query).getTermVector();
+    if (_arguments._pruning && hasBounds(phrases)) {
+      runPruned(phrases, cursor, rankQueue);
+      return rankQueue.results();
+    }
+
     Document doc = null;
     int docid = -1;
-
-    while ((doc = _indexer.nextDoc(query, docid)) != null) {
-      ScoredDocument sdoc = scoreDocument(query, doc);
+    while ((doc = cursor.nextDoc(docid)) != null) {
+      ScoredDocument sdoc = scoreDocument(query, doc, cursor);
       if (sdoc != null) {
         rankQueue.add(sdoc);
-        if (rankQueue.size() > numResults * page) {
-          rankQueue.poll();
-        }
       }
       docid = doc._docid;
     }
+    return rankQueue.results();
+  }
 
-    Vector<ScoredDocument> results = new Vector<ScoredDocument>();
-    ScoredDocument scoredDoc = null;
-    int resultSize = rankQueue.size() - (numResults * (page - 1));
-    while ((scoredDoc = rankQueue.poll()) != null && results.size() < resultSize) {
-      results.add(scoredDoc);
+  private boolean hasBounds(Vector<String> phrases) {
+    for (String term : phrases) {
+      if (_indexer.maxTermFrequency(term) < 0) {
+        return false;
+      }
     }
-    Collections.sort(results, Collections.reverseOrder());
-    return results;
+    return true;
   }
 
-  private ScoredDocument scoreDocument(Query query, Document doc) {
-    double score = 0.0;
-    double probability = 0;
+  /**
+   * Scores the same documents as runQuery, skipping those that can not make
+   * the results. The cursor only returns documents holding every term, so
+   * the ceiling of a document is its score with each term at the most
+   * frequent it is in the posting block holding the document, and the
+   * document length at the smallest of the block. When that ceiling can not
+   * beat the last result the rest of the blocks is passed over; otherwise
+   * the ceiling at the real length is checked before the frequencies are
+   * read and the Document is built.
+   */
+  private void runPruned(Vector<String> phrases, QueryCursor cursor,
+      TopDocuments rankQueue) {
+    int size = phrases.size();
+    int[] maxFrequency = new int[size];
+    // (1 - LAMBDA) * tf / length can round above (1 - LAMBDA) * maxRatio
+    double[] ratioCeiling = new double[size];
+    double[] background = new double[size];
+    for (int i = 0; i < size; i++) {
+      String term = phrases.get(i);
+      maxFrequency[i] = _indexer.maxTermFrequency(term);
+      ratioCeiling[i] = TopDocuments.roundUp((1 - LAMBDA)
+          * _indexer.maxTermRatio(term));
+      background[i] = LAMBDA * _indexer.corpusTermFrequency(term)
+          / _indexer._totalTermFrequency;
+    }
+
+    // the term frequency ceilings in the current blocks
+    int[] frequency = new int[size];
+    int docid = -1;
+    while ((docid = cursor.nextDocid(docid)) != -1) {
+      // same operations as score() with larger frequencies and smaller
+      // lengths or the rounded up ratio ceilings, so the rounding can not
+      // take the real score above them
+      if (rankQueue.isFull()) {
+        double ceiling = 0.0;
+        for (int i = 0; i < size; i++) {
+          String term = phrases.get(i);
+          frequency[i] = cursor.blockMaxFrequency(term);
+          if (frequency[i] < 0) {
+            frequency[i] = maxFrequency[i];
+          }
+          double probability = Math.min((1 - LAMBDA) * frequency[i]
+              / cursor.blockMinLength(term), ratioCeiling[i])
+              + background[i];
+          ceiling += Math.log(probability) / LOG2_BASE;
+        }
+        if (!rankQueue.admits(docid, ceiling)) {
+          docid = cursor.blockLastDocid(docid);
+          continue;
+        }
+      }
+      int length = _indexer.documentLength(docid);
+      if (length == 0) {
+        continue;
+      }
+      if (rankQueue.isFull()) {
+        double ceiling = 0.0;
+        for (int i = 0; i < size; i++) {
+          double probability = Math.min((1 - LAMBDA) * frequency[i]
+              / length, ratioCeiling[i]) + background[i];
+          ceiling += Math.log(probability) / LOG2_BASE;
+        }
+        if (!rankQueue.admits(docid, ceiling)) {
+          continue;
+        }
+      }
+      double score = score(phrases, docid, length, cursor);
+      if (score != 0.0) {
+        rankQueue.add(new ScoredDocument(_indexer.getDoc(docid), score));
+      }
+    }
+  }
+
+  private ScoredDocument scoreDocument(Query query, Document doc,
+      QueryCursor cursor) {
     int length = ((DocumentIndexed) doc).getLength();
     if (length == 0) {
       return null;
     }
 
-    Vector<String> phrases = ((QueryPhrase) query).getTermVector();
+    double score = score(((QueryPhrase) query).getTermVector(), doc._docid,
+        length, cursor);
+    if (score == 0.0) {
+      return null;
+    } else {
+      return new ScoredDocument(doc, score);
+    }
+  }
+
+  // Query likelihood of docid, whose length is not 0.
+  private double score(Vector<String> phrases, int docid, int length,
+      QueryCursor cursor) {
+    double score = 0.0;
+    double probability = 0;
     for (String term : phrases) {
       probability = (1 - LAMBDA)
-          * _indexer.documentTermFrequency(term, doc._docid)
+          * cursor.documentTermFrequency(term, docid)
           / length + LAMBDA
           * _indexer.corpusTermFrequency(term) / _indexer._totalTermFrequency;
       score += Math.log(probability) / LOG2_BASE;
     }
-    if (score == 0.0) {
-      return null;
-    } else {
-      return new ScoredDocument(doc, score);
-    }
+    return score;
   }
 
   @Override
@@ -79,8 +161,9 @@ public class RankerFavorite extends Ranker {
     ScoredDocument results = null;
     Document doc = null;
     int docid = -1;
-    while ((doc = _stackIndexer.nextDoc(query, docid)) != null) {
-      ScoredDocument sdoc = scoreStackDocument(query, doc);
+    QueryCursor cursor = _stackIndexer.getQueryCursor(query);
+    while ((doc = cursor.nextDoc(docid)) != null) {
+      ScoredDocument sdoc = scoreStackDocument(query, doc, cursor);
       if (sdoc != null) {
       //only need the best results
         if (sdoc.compareTo(results) == 1) {
@@ -102,7 +185,8 @@ public class RankerFavorite extends Ranker {
     }
   }
   
-  private ScoredDocument scoreStackDocument(Query query, Document doc) {
+  private ScoredDocument scoreStackDocument(Query query, Document doc,
+      QueryCursor cursor) {
     double score = 0.0;
     double probability = 0;
     int length = ((DocumentStackOverFlow) doc).getLength();
@@ -114,7 +198,7 @@ public class RankerFavorite extends Ranker {
     Vector<String> phrases = ((QueryPhrase) query).getTermVector();
     for (String term : phrases) {
       probability = (1 - LAMBDA)
-          * _stackIndexer.documentTermFrequency(term, doc._docid)
+          * cursor.documentTermFrequency(term, doc._docid)
           / length + LAMBDA
           * _stackIndexer.corpusTermFrequency(term) / _stackIndexer._totalTermFrequency;
       score += Math.log(probability) / LOG2_BASE;
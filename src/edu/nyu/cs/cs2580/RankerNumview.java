@@ -27,8 +27,9 @@ public class RankerNumview extends Ranker {
     Queue<ScoredDocument> rankQueue = new PriorityQueue<ScoredDocument>();
     Document doc = null;
     int docid = -1;
+    QueryCursor cursor = _indexer.getQueryCursor(query);
 
-    while ((doc = _indexer.nextDoc(query, docid)) != null) {
+    while ((doc = cursor.nextDoc(docid)) != null) {
       ScoredDocument sdoc = scoreDocument(query, doc);
       if (sdoc != null) {
         rankQueue.add(sdoc);
@@ -7,7 +7,9 @@ import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.security.NoSuchAlgorithmException;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.Executors;
 
 import com.sun.net.httpserver.HttpServer;
@@ -21,6 +23,8 @@ import com.sun.net.httpserver.HttpServer;
  *  1) Mining
  *   java -cp src edu.nyu.cs.cs2580.SearchEngine \
  *     --mode=mining --options=conf/engine.conf
+ *   After a previous run, --changed=[file] lists the documents added, changed
+ *   or removed since, one per line, and only those are read again.
  *  2) Indexing
  *   java -cp src edu.nyu.cs.cs2580.SearchEngine \
  *     --mode=index --options=conf/engine.conf
@@ -81,6 +85,35 @@ public class SearchEngine {
 
     public String _spellprefix = null;
 
+    // Number of threads parsing documents and merging posting lists while
+    // indexing, and reading logs while mining. The index and the mining
+    // results are the same whatever the number.
+    public int _indexThreads = Runtime.getRuntime().availableProcessors();
+
+    // Bytes of postings an indexer buffers before writing them out as a
+    // partial run.
+    public long _indexMemoryBudget = Runtime.getRuntime().maxMemory() / 4;
+
+    // Number the documents by descending page rank times numviews instead of
+    // in the order they are read, so the best documents come first in every
+    // posting list.
+    public boolean _docidByQuality = false;
+
+    // Fraction of the documents, the best by page rank and numviews, whose
+    // postings are also kept in a hot tier served from memory; 0 for none.
+    public double _tierFraction = 0;
+
+    // PageRank stops once the ranks move by less than this on average
+    // between two iterations, or after _pagerankMaxIterations.
+    public double _pagerankTolerance = 1e-4;
+    public int _pagerankMaxIterations = 100;
+
+    // Days of logs, up to the latest, summed into the numviews of a page, 0
+    // for all. The views of each day count half as much every
+    // _numViewsHalfLifeDays before the latest, 0 for no decay.
+    public int _numViewsWindowDays = 0;
+    public double _numViewsHalfLifeDays = 0;
+
     /**
      * Constructor for options.
      * @param optionFile where all the options must reside
@@ -133,6 +166,49 @@ public class SearchEngine {
 
       _logMinerType = options.get("log_miner_type");
       Check(_logMinerType != null, "Missing option: log_miner_type!");
+
+      if (options.containsKey("index_threads")) {
+        _indexThreads = Integer.parseInt(options.get("index_threads"));
+        Check(_indexThreads > 0, "index_threads must be positive!");
+      }
+      if (options.containsKey("index_memory_mb")) {
+        _indexMemoryBudget = Long.parseLong(options.get("index_memory_mb"))
+            << 20;
+        Check(_indexMemoryBudget > 0, "index_memory_mb must be positive!");
+      }
+      if (options.containsKey("docid_order")) {
+        String order = options.get("docid_order");
+        Check(order.equals("source") || order.equals("quality"),
+            "docid_order must be source or quality!");
+        _docidByQuality = order.equals("quality");
+      }
+      if (options.containsKey("tier_fraction")) {
+        _tierFraction = Double.parseDouble(options.get("tier_fraction"));
+        Check(_tierFraction >= 0 && _tierFraction <= 1,
+            "tier_fraction must be between 0 and 1!");
+      }
+      if (options.containsKey("pagerank_tolerance")) {
+        _pagerankTolerance = Double.parseDouble(
+            options.get("pagerank_tolerance"));
+        Check(_pagerankTolerance >= 0, "pagerank_tolerance must be >= 0!");
+      }
+      if (options.containsKey("pagerank_max_iterations")) {
+        _pagerankMaxIterations = Integer.parseInt(
+            options.get("pagerank_max_iterations"));
+        Check(_pagerankMaxIterations > 0,
+            "pagerank_max_iterations must be positive!");
+      }
+      if (options.containsKey("numviews_window_days")) {
+        _numViewsWindowDays = Integer.parseInt(
+            options.get("numviews_window_days"));
+        Check(_numViewsWindowDays >= 0, "numviews_window_days must be >= 0!");
+      }
+      if (options.containsKey("numviews_half_life_days")) {
+        _numViewsHalfLifeDays = Double.parseDouble(
+            options.get("numviews_half_life_days"));
+        Check(_numViewsHalfLifeDays >= 0,
+            "numviews_half_life_days must be >= 0!");
+      }
     }
   }
   public static Options OPTIONS = null;
@@ -155,11 +231,16 @@ public class SearchEngine {
     MINING,
     INDEX,
     SERVE,
+    BUILD,
   };
   public static Mode MODE = Mode.NONE;
 
   public static int PORT = -1;
 
+  // Mining mode only: file listing the names of the documents added, changed
+  // or removed since the last run, one per line. Only those are read again.
+  public static String CHANGED = null;
+
   private static void parseCommandLine(String[] args)
       throws IOException, NumberFormatException {
     for (String arg : args) {
@@ -176,28 +257,44 @@ public class SearchEngine {
         PORT = Integer.parseInt(value);
       } else if (key.equals("--options") || key.equals("-options")) {
         OPTIONS = new Options(value);
+      } else if (key.equals("--changed") || key.equals("-changed")) {
+        CHANGED = value;
       }
     }
-    Check(MODE == Mode.SERVE || MODE == Mode.INDEX || MODE == Mode.MINING,
-        "Must provide a valid mode: serve or index or mining!");
+    Check(MODE != Mode.NONE,
+        "Must provide a valid mode: serve or index or mining or build!");
     Check(MODE != Mode.SERVE || PORT != -1,
         "Must provide a valid port number (258XX) in serve mode!");
     Check(OPTIONS != null, "Must provide options!");
+    Check(CHANGED == null || MODE == Mode.MINING,
+        "Changed documents are only used in mining mode!");
   }
 
   ///// Main functionalities start
 
   private static void startMining()
       throws IOException, NoSuchAlgorithmException {
-    File miningDir = new File(SearchEngine.OPTIONS._miningPrefix);
-    if (!miningDir.exists() || !miningDir.isDirectory()) {
-      miningDir.mkdir();
-    }
+    makeMiningDir();
     CorpusAnalyzer analyzer = CorpusAnalyzer.Factory.getCorpusAnalyzerByOption(
         SearchEngine.OPTIONS);
     Check(analyzer != null,
         "Analyzer " + SearchEngine.OPTIONS._corpusAnalyzerType + " not found!");
-    analyzer.prepare();
+    if (CHANGED != null) {
+      Check(analyzer instanceof CorpusAnalyzerPagerank,
+          "Only the pagerank analyzer can update a previous run!");
+      Set<String> changed = new HashSet<String>();
+      BufferedReader reader = new BufferedReader(new FileReader(CHANGED));
+      String line;
+      while ((line = reader.readLine()) != null) {
+        if (!line.trim().isEmpty()) {
+          changed.add(line.trim());
+        }
+      }
+      reader.close();
+      ((CorpusAnalyzerPagerank) analyzer).update(changed);
+    } else {
+      analyzer.prepare();
+    }
     analyzer.compute();
 
     LogMiner miner = LogMiner.Factory.getLogMinerByOption(SearchEngine.OPTIONS);
@@ -219,6 +316,37 @@ public class SearchEngine {
     indexerStackOverFlow.constructIndex();
   }
   
+  /**
+   * Mining and index mode in one, reading the corpus once. Needs the
+   * pagerank analyzer, the numviews miner and the compressed indexers.
+   */
+  private static void startBuilding() throws IOException {
+    makeMiningDir();
+    CorpusAnalyzer analyzer = CorpusAnalyzer.Factory.getCorpusAnalyzerByOption(
+        SearchEngine.OPTIONS);
+    LogMiner miner = LogMiner.Factory.getLogMinerByOption(SearchEngine.OPTIONS);
+    Indexer indexer = Indexer.Factory.getIndexerByOption(SearchEngine.OPTIONS);
+    Indexer indexerStackOverFlow = Indexer.Factory.getIndexerStackOverFlow(SearchEngine.OPTIONS);
+    Check(analyzer instanceof CorpusAnalyzerPagerank,
+        "Build mode needs the pagerank analyzer!");
+    Check(miner instanceof LogMinerNumviews,
+        "Build mode needs the numviews miner!");
+    Check(indexer instanceof IndexerInvertedCompressed,
+        "Build mode needs inverted-compressed or inverted-split!");
+    Check(indexerStackOverFlow instanceof IndexerStackOverFlowCompressed,
+        "Build mode needs stackoverflow-compressed!");
+    new CorpusBuilder(SearchEngine.OPTIONS, (CorpusAnalyzerPagerank) analyzer,
+        (LogMinerNumviews) miner, (IndexerInvertedCompressed) indexer,
+        (IndexerStackOverFlowCompressed) indexerStackOverFlow).build();
+  }
+
+  private static void makeMiningDir() {
+    File miningDir = new File(SearchEngine.OPTIONS._miningPrefix);
+    if (!miningDir.exists() || !miningDir.isDirectory()) {
+      miningDir.mkdir();
+    }
+  }
+
   private static void startServing() throws IOException, ClassNotFoundException {
     // Create the handler and its associated indexer.
     Indexer indexer = Indexer.Factory.getIndexerByOption(SearchEngine.OPTIONS);
@@ -254,6 +382,9 @@ public class SearchEngine {
       case SERVE:
         startServing();
         break;
+      case BUILD:
+        startBuilding();
+        break;
       default:
         Check(false, "Wrong mode for SearchEngine!");
       }
@@ -0,0 +1,233 @@
+package edu.nyu.cs.cs2580;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * {@link PostingIterator} over a vByte compressed positional posting list
+ * carrying a skip table, as written to corpus.list and stack.list.
+ *
+ * A list is laid out as:
+ *
+ * <pre>
+ * int   length of everything below, in bytes
+ * int   number of blocks
+ * (int last docid, int end offset) per block
+ * vByte (docid, offset) pairs
+ * </pre>
+ *
+ * A block is closed at the first document boundary after
+ * {@link #BLOCK_SIZE} postings, so the pairs of one document never straddle
+ * two blocks. The end offsets are relative to the start of the pairs.
+ *
+ * Only the block holding the current document is decoded, {@link #skipTo}
+ * searches the skip table and jumps over every block whose last docid is
+ * below the target without touching its bytes. When the index keeps
+ * {@link BlockBounds} the iterator also reports the ceilings of the current
+ * block.
+ */
+public class SkipListPostingIterator extends PostingIterator {
+  public static final int BLOCK_SIZE = 128;
+
+  private final ByteBuffer _postings;
+  private final int[] _lastDocids;
+  private final int[] _blockEnds;
+  // ceilings of the blocks of this term, null when not kept
+  private final BlockBounds _bounds;
+  private final int _termId;
+
+  // Decoded (docid, offset) pairs of the current block.
+  private final PostingList.Builder _block = new PostingList.Builder(
+      BLOCK_SIZE * 2);
+  private int _blockIndex = -1;
+  // Index of the first pair of the current document within the block.
+  private int _index = 0;
+
+  /**
+   * @param list the list as returned by {@link MappedPostingFile#getList},
+   *          starting at the number of blocks
+   */
+  public SkipListPostingIterator(ByteBuffer list) {
+    this(list, null, -1);
+  }
+
+  /**
+   * @param list the list as returned by {@link MappedPostingFile#getList},
+   *          starting at the number of blocks
+   * @param bounds the block ceilings of the index or null, ignored if they
+   *          do not match the blocks of the list
+   * @param termId the term of the list
+   */
+  public SkipListPostingIterator(ByteBuffer list, BlockBounds bounds,
+      int termId) {
+    int base = list.position();
+    int blocks = list.getInt(base);
+    _lastDocids = new int[blocks];
+    _blockEnds = new int[blocks];
+    for (int i = 0; i < blocks; i++) {
+      _lastDocids[i] = list.getInt(base + 4 + i * 8);
+      _blockEnds[i] = list.getInt(base + 8 + i * 8);
+    }
+    _postings = postings(list);
+    if (bounds != null && termId < bounds.size()
+        && bounds.blocks(termId) == blocks) {
+      _bounds = bounds;
+      _termId = termId;
+    } else {
+      _bounds = null;
+      _termId = -1;
+    }
+    if (blocks > 0) {
+      loadBlock(0);
+    } else {
+      _blockIndex = 0;
+    }
+  }
+
+  /**
+   * Returns the vByte pairs of {@code list}, skipping the skip table.
+   */
+  public static ByteBuffer postings(ByteBuffer list) {
+    ByteBuffer view = list.duplicate();
+    view.position(list.position() + 4 + list.getInt(list.position()) * 8);
+    return view.slice();
+  }
+
+  /**
+   * Writes one list in the format above from the decoded postings of a term.
+   * Returns the number of bytes written.
+   */
+  public static int writeList(DataOutputStream writer, TermPostings postings)
+      throws IOException {
+    byte[] pairs = postings.bytes();
+    int blocks = postings.blocks();
+    int length = 4 + blocks * 8 + pairs.length;
+    writer.writeInt(length);
+    writer.writeInt(blocks);
+    for (int i = 0; i < blocks; i++) {
+      int last = postings.blockEnd(i) - 1;
+      writer.writeInt(postings.docid(last));
+      writer.writeInt(postings.byteEnd(last));
+    }
+    writer.write(pairs);
+    return length + 4;
+  }
+
+  @Override
+  public boolean isPositional() {
+    return true;
+  }
+
+  @Override
+  public int docid() {
+    return _blockIndex < _lastDocids.length && _index < _block.size() ? _block
+        .get(_index) : -1;
+  }
+
+  @Override
+  public int skipTo(int docid) {
+    if (_blockIndex >= _lastDocids.length) {
+      return -1;
+    }
+    if (_lastDocids[_blockIndex] < docid) {
+      // gallop along the skip table to the first block that can hold docid
+      int block = PostingList.gallop(_lastDocids, _blockIndex + 1,
+          _lastDocids.length, 1, docid);
+      if (block == _lastDocids.length) {
+        _blockIndex = block;
+        return -1;
+      }
+      loadBlock(block);
+    }
+    // the block holds docid or a later document
+    _index = _block.seekPair(_index, docid);
+    return _block.get(_index);
+  }
+
+  @Override
+  public int frequency() {
+    if (docid() == -1) {
+      return 0;
+    }
+    int docid = _block.get(_index);
+    int i = _index;
+    while (i < _block.size() && _block.get(i) == docid) {
+      i += 2;
+    }
+    return (i - _index) / 2;
+  }
+
+  @Override
+  public int nextPosition(int pos) {
+    if (docid() == -1) {
+      return -1;
+    }
+    int docid = _block.get(_index);
+    for (int i = _index; i < _block.size() && _block.get(i) == docid; i += 2) {
+      if (_block.get(i + 1) > pos) {
+        return _block.get(i + 1);
+      }
+    }
+    return -1;
+  }
+
+  @Override
+  public int[] positions(int[] buffer) {
+    if (docid() == -1) {
+      return buffer;
+    }
+    int docid = _block.get(_index);
+    int count = 0;
+    for (int i = _index; i < _block.size() && _block.get(i) == docid; i += 2) {
+      if (count == buffer.length) {
+        buffer = Arrays.copyOf(buffer, Math.max(count * 2, 8));
+      }
+      buffer[count++] = _block.get(i + 1);
+    }
+    return buffer;
+  }
+
+  @Override
+  public int blockMaxFrequency() {
+    if (_bounds == null || docid() == -1) {
+      return -1;
+    }
+    return _bounds.maxFrequency(_termId, _blockIndex);
+  }
+
+  @Override
+  public int blockMinLength() {
+    if (_bounds == null || docid() == -1) {
+      return 1;
+    }
+    return _bounds.minLength(_termId, _blockIndex);
+  }
+
+  @Override
+  public int blockLastDocid() {
+    if (_bounds == null || docid() == -1) {
+      return docid();
+    }
+    return _lastDocids[_blockIndex];
+  }
+
+  private void loadBlock(int blockIndex) {
+    int start = blockIndex == 0 ? 0 : _blockEnds[blockIndex - 1];
+    int end = _blockEnds[blockIndex];
+    _block.clear();
+    int value = 0;
+    for (int i = start; i < end; i++) {
+      byte b = _postings.get(i);
+      if (b < 0) {
+        _block.add(value * 128 + (b + 128));
+        value = 0;
+      } else {
+        value = value * 128 + b;
+      }
+    }
+    _blockIndex = blockIndex;
+    _index = 0;
+  }
+}
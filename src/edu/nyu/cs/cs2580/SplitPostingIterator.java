@@ -0,0 +1,267 @@
+package edu.nyu.cs.cs2580;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * {@link PostingIterator} over the split layout of
+ * {@link IndexerInvertedSplit}, where the postings and the positions of a term
+ * are kept in two separate streams.
+ *
+ * The postings stream holds one entry per document:
+ *
+ * <pre>
+ * int   length of everything below, in bytes
+ * int   number of blocks
+ * (int last docid, int end offset, int positions offset) per block
+ * vByte (docid gap, tf) pairs
+ * </pre>
+ *
+ * A block closes after {@link #BLOCK_SIZE} documents. The docid gap of the
+ * first document of a block is taken from the last docid of the previous
+ * block, so every block decodes on its own. The end offsets are relative to
+ * the start of the pairs.
+ *
+ * The positions stream holds, for each document in the same order, tf vByte
+ * numbers: the first position followed by the gaps to the next ones. The
+ * positions offset of a block points at its first document, relative to the
+ * start of the term in the positions stream.
+ *
+ * Counting queries only ever touch the postings stream, positions are decoded
+ * for the current document when {@link #nextPosition} is first called.
+ */
+public class SplitPostingIterator extends PostingIterator {
+  public static final int BLOCK_SIZE = 128;
+
+  private final ByteBuffer _postings;
+  private final ByteBuffer _positions;
+  private final int[] _lastDocids;
+  private final int[] _blockEnds;
+  private final int[] _positionStarts;
+
+  // Decoded (docid, tf) pairs of the current block.
+  private final PostingList.Builder _block = new PostingList.Builder(
+      BLOCK_SIZE * 2);
+  private int _blockIndex = 0;
+  private int _index = 0;
+
+  // Positions of the current document, valid while _positionsIndex == _index.
+  private final PostingList.Builder _docPositions = new PostingList.Builder();
+  private int _positionsIndex = -1;
+  // Start of the positions of the block document at _cursorIndex.
+  private int _cursor = 0;
+  private int _cursorIndex = 0;
+
+  /**
+   * @param list the postings of a term, starting at the number of blocks
+   * @param positions the positions of the same term
+   */
+  public SplitPostingIterator(ByteBuffer list, ByteBuffer positions) {
+    int base = list.position();
+    int blocks = list.getInt(base);
+    _lastDocids = new int[blocks];
+    _blockEnds = new int[blocks];
+    _positionStarts = new int[blocks];
+    for (int i = 0; i < blocks; i++) {
+      _lastDocids[i] = list.getInt(base + 4 + i * 12);
+      _blockEnds[i] = list.getInt(base + 8 + i * 12);
+      _positionStarts[i] = list.getInt(base + 12 + i * 12);
+    }
+    _postings = postings(list);
+    _positions = positions;
+    if (blocks > 0) {
+      loadBlock(0);
+    }
+  }
+
+  /**
+   * Returns the vByte (docid gap, tf) pairs of {@code list}, skipping the skip
+   * table.
+   */
+  public static ByteBuffer postings(ByteBuffer list) {
+    ByteBuffer view = list.duplicate();
+    view.position(list.position() + 4 + list.getInt(list.position()) * 12);
+    return view.slice();
+  }
+
+  /**
+   * Encodes the positional (docid, offset) pairs of one term. The complete
+   * postings entry, length included, goes to {@code postings} and the
+   * positions to {@code positions}.
+   */
+  public static void encode(PostingList pairs, ByteArrayOutputStream postings,
+      ByteArrayOutputStream positions) throws IOException {
+    ByteArrayOutputStream docs = new ByteArrayOutputStream();
+    ByteArrayOutputStream table = new ByteArrayOutputStream();
+    int blocks = 0;
+    int count = 0;
+    int lastDocid = 0;
+    int blockPositions = positions.size();
+    int start = positions.size();
+    int i = 0;
+    while (i < pairs.size()) {
+      int docid = pairs.get(i);
+      int tf = 0;
+      int previous = 0;
+      while (i < pairs.size() && pairs.get(i) == docid) {
+        int position = pairs.get(i + 1);
+        IndexerInvertedCompressed.writeVByte(positions, position - previous);
+        previous = position;
+        tf++;
+        i += 2;
+      }
+      IndexerInvertedCompressed.writeVByte(docs, docid - lastDocid);
+      IndexerInvertedCompressed.writeVByte(docs, tf);
+      lastDocid = docid;
+      if (++count == BLOCK_SIZE || i == pairs.size()) {
+        writeInt(table, lastDocid);
+        writeInt(table, docs.size());
+        writeInt(table, blockPositions - start);
+        blockPositions = positions.size();
+        blocks++;
+        count = 0;
+      }
+    }
+    writeInt(postings, 4 + table.size() + docs.size());
+    writeInt(postings, blocks);
+    postings.write(table.toByteArray(), 0, table.size());
+    postings.write(docs.toByteArray(), 0, docs.size());
+  }
+
+  @Override
+  public boolean isPositional() {
+    return true;
+  }
+
+  @Override
+  public int docid() {
+    return _blockIndex < _lastDocids.length && _index < _block.size() ? _block
+        .get(_index) : -1;
+  }
+
+  @Override
+  public int skipTo(int docid) {
+    if (_blockIndex >= _lastDocids.length) {
+      return -1;
+    }
+    if (_lastDocids[_blockIndex] < docid) {
+      // gallop along the skip table to the first block that can hold docid
+      int block = PostingList.gallop(_lastDocids, _blockIndex + 1,
+          _lastDocids.length, 1, docid);
+      if (block == _lastDocids.length) {
+        _blockIndex = block;
+        return -1;
+      }
+      loadBlock(block);
+    }
+    // the block holds docid or a later document
+    _index = _block.seekPair(_index, docid);
+    return _block.get(_index);
+  }
+
+  @Override
+  public int frequency() {
+    return docid() == -1 ? 0 : _block.get(_index + 1);
+  }
+
+  @Override
+  public int nextPosition(int pos) {
+    if (docid() == -1) {
+      return -1;
+    }
+    loadPositions();
+    for (int i = 0; i < _docPositions.size(); i++) {
+      if (_docPositions.get(i) > pos) {
+        return _docPositions.get(i);
+      }
+    }
+    return -1;
+  }
+
+  @Override
+  public int[] positions(int[] buffer) {
+    if (docid() == -1) {
+      return buffer;
+    }
+    loadPositions();
+    int count = _docPositions.size();
+    if (buffer.length < count) {
+      buffer = new int[Math.max(count, buffer.length * 2)];
+    }
+    for (int i = 0; i < count; i++) {
+      buffer[i] = _docPositions.get(i);
+    }
+    return buffer;
+  }
+
+  private void loadBlock(int blockIndex) {
+    int start = blockIndex == 0 ? 0 : _blockEnds[blockIndex - 1];
+    int end = _blockEnds[blockIndex];
+    int docid = blockIndex == 0 ? 0 : _lastDocids[blockIndex - 1];
+    _block.clear();
+    int value = 0;
+    boolean isGap = true;
+    for (int i = start; i < end; i++) {
+      byte b = _postings.get(i);
+      if (b >= 0) {
+        value = value * 128 + b;
+        continue;
+      }
+      value = value * 128 + (b + 128);
+      if (isGap) {
+        docid += value;
+        _block.add(docid);
+      } else {
+        _block.add(value);
+      }
+      isGap = !isGap;
+      value = 0;
+    }
+    _blockIndex = blockIndex;
+    _index = 0;
+    _cursor = _positionStarts[blockIndex];
+    _cursorIndex = 0;
+    _positionsIndex = -1;
+  }
+
+  // Decodes the positions of the current document. The documents before it
+  // in the block are skipped by counting their numbers, not decoded.
+  private void loadPositions() {
+    if (_positionsIndex == _index) {
+      return;
+    }
+    while (_cursorIndex < _index) {
+      int numbers = _block.get(_cursorIndex + 1);
+      while (numbers > 0) {
+        if (_positions.get(_cursor++) < 0) {
+          numbers--;
+        }
+      }
+      _cursorIndex += 2;
+    }
+    _docPositions.clear();
+    int numbers = _block.get(_index + 1);
+    int position = 0;
+    int value = 0;
+    for (int i = _cursor; numbers > 0; i++) {
+      byte b = _positions.get(i);
+      if (b < 0) {
+        position += value * 128 + (b + 128);
+        _docPositions.add(position);
+        value = 0;
+        numbers--;
+      } else {
+        value = value * 128 + b;
+      }
+    }
+    _positionsIndex = _index;
+  }
+
+  private static void writeInt(ByteArrayOutputStream out, int value) {
+    out.write(value >>> 24);
+    out.write(value >>> 16);
+    out.write(value >>> 8);
+    out.write(value);
+  }
+}
@@ -0,0 +1,120 @@
+package edu.nyu.cs.cs2580;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Per term ceilings indexed by term id: the largest frequency of the term in
+ * any one document, and the largest frequency / length ratio of any
+ * document. A ranker scoring with tf / length bounds what a document can get
+ * from them before decoding its frequencies, see {@link TopDocuments}.
+ *
+ * Collected from the final posting lists while they are merged and saved
+ * next to the lexicon: the number of terms, then the frequencies as ints and
+ * the ratios as floats, rounded up so they never fall below the true ratio.
+ */
+class TermBounds {
+  private int[] _maxFrequency;
+  private float[] _maxRatio;
+  private int _size = 0;
+
+  public TermBounds(int capacity) {
+    capacity = Math.max(capacity, 1);
+    _maxFrequency = new int[capacity];
+    _maxRatio = new float[capacity];
+  }
+
+  // Appends the bounds of the next term id.
+  public void add(int maxFrequency, float maxRatio) {
+    if (_size == _maxFrequency.length) {
+      _maxFrequency = Arrays.copyOf(_maxFrequency, _size * 2);
+      _maxRatio = Arrays.copyOf(_maxRatio, _size * 2);
+    }
+    _maxFrequency[_size] = maxFrequency;
+    _maxRatio[_size] = maxRatio;
+    _size++;
+  }
+
+  // Appends the bounds of all the terms of other, in order.
+  public void addAll(TermBounds other) {
+    for (int i = 0; i < other._size; i++) {
+      add(other._maxFrequency[i], other._maxRatio[i]);
+    }
+  }
+
+  /**
+   * Appends the bounds of the decoded postings of one term, lengths holds the
+   * length of each docid.
+   */
+  public void add(TermPostings postings, int[] lengths) {
+    int maxFrequency = 0;
+    double maxRatio = 0;
+    for (int i = 0; i < postings.documents(); i++) {
+      int frequency = postings.frequency(i);
+      maxFrequency = Math.max(maxFrequency, frequency);
+      maxRatio = Math.max(maxRatio,
+          (double) frequency / lengths[postings.docid(i)]);
+    }
+    add(maxFrequency, roundUp(maxRatio));
+  }
+
+  // The float nearest ratio from above, as the ratios are stored.
+  static float roundUp(double ratio) {
+    float rounded = (float) ratio;
+    return rounded < ratio ? Math.nextUp(rounded) : rounded;
+  }
+
+  public int size() {
+    return _size;
+  }
+
+  public int maxFrequency(int termId) {
+    return _maxFrequency[termId];
+  }
+
+  public float maxRatio(int termId) {
+    return _maxRatio[termId];
+  }
+
+  public void write(String fileName) throws IOException {
+    DataOutputStream writer = new DataOutputStream(new BufferedOutputStream(
+        new FileOutputStream(fileName)));
+    writer.writeInt(_size);
+    for (int i = 0; i < _size; i++) {
+      writer.writeInt(_maxFrequency[i]);
+    }
+    for (int i = 0; i < _size; i++) {
+      writer.writeFloat(_maxRatio[i]);
+    }
+    writer.close();
+  }
+
+  public static TermBounds load(String fileName) throws IOException {
+    FileInputStream input = new FileInputStream(fileName);
+    try {
+      FileChannel channel = input.getChannel();
+      ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+      while (buffer.hasRemaining()) {
+        if (channel.read(buffer) < 0) {
+          throw new IOException("Truncated term bounds: " + fileName);
+        }
+      }
+      buffer.flip();
+      int size = buffer.getInt();
+      TermBounds bounds = new TermBounds(size);
+      buffer.asIntBuffer().get(bounds._maxFrequency, 0, size);
+      buffer.position(buffer.position() + 4 * size);
+      buffer.asFloatBuffer().get(bounds._maxRatio, 0, size);
+      bounds._size = size;
+      return bounds;
+    } finally {
+      input.close();
+    }
+  }
+}
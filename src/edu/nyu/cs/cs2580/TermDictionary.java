@@ -0,0 +1,305 @@
+package edu.nyu.cs.cs2580;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Sorted, front-coded term to term id dictionary, the serving replacement of
+ * a HashMap over the whole vocabulary.
+ *
+ * Terms are sorted by their UTF-8 bytes and cut into blocks of
+ * {@link #BLOCK_SIZE}. The first term of a block is stored in full, every
+ * other one as the length of the prefix it shares with the term before it
+ * and the remaining bytes. Each term is followed by its term id. On disk:
+ *
+ * <pre>
+ * int   terms, int blocks, int longest term in bytes
+ * int   offset of each block into the data
+ * data  per term: vByte shared, vByte suffix length, suffix, vByte term id
+ * </pre>
+ *
+ * The block offsets are the only in-memory index, a lookup binary searches
+ * the first terms of the blocks in place and decodes a single block.
+ */
+public class TermDictionary {
+  public static final int BLOCK_SIZE = 16;
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  private final int _size;
+  private final int _maxLength;
+  private final int[] _blockOffsets;
+  private final byte[] _data;
+  // the cursor of each thread, reused by its every lookup
+  private final ThreadLocal<Cursor> _cursors = new ThreadLocal<Cursor>() {
+    @Override
+    protected Cursor initialValue() {
+      return new Cursor();
+    }
+  };
+
+  private TermDictionary(int size, int maxLength, int[] blockOffsets,
+      byte[] data) {
+    _size = size;
+    _maxLength = maxLength;
+    _blockOffsets = blockOffsets;
+    _data = data;
+  }
+
+  /**
+   * Writes the dictionary of {@code terms}, where the term id of each term is
+   * its index in the list.
+   */
+  public static void write(String fileName, List<String> terms)
+      throws IOException {
+    final byte[][] bytes = new byte[terms.size()][];
+    Integer[] ids = new Integer[terms.size()];
+    int maxLength = 0;
+    for (int i = 0; i < bytes.length; i++) {
+      bytes[i] = terms.get(i).getBytes(UTF8);
+      ids[i] = i;
+      maxLength = Math.max(maxLength, bytes[i].length);
+    }
+    Arrays.sort(ids, new Comparator<Integer>() {
+      @Override
+      public int compare(Integer a, Integer b) {
+        return compareBytes(bytes[a], 0, bytes[a].length, bytes[b]);
+      }
+    });
+
+    int blocks = (ids.length + BLOCK_SIZE - 1) / BLOCK_SIZE;
+    int[] blockOffsets = new int[blocks];
+    ByteArrayOutputStream data = new ByteArrayOutputStream();
+    byte[] previous = new byte[0];
+    for (int i = 0; i < ids.length; i++) {
+      byte[] term = bytes[ids[i]];
+      int shared = 0;
+      if (i % BLOCK_SIZE == 0) {
+        blockOffsets[i / BLOCK_SIZE] = data.size();
+      } else {
+        int limit = Math.min(previous.length, term.length);
+        while (shared < limit && previous[shared] == term[shared]) {
+          shared++;
+        }
+      }
+      IndexerInvertedCompressed.writeVByte(data, shared);
+      IndexerInvertedCompressed.writeVByte(data, term.length - shared);
+      data.write(term, shared, term.length - shared);
+      IndexerInvertedCompressed.writeVByte(data, ids[i]);
+      previous = term;
+    }
+
+    DataOutputStream writer = new DataOutputStream(new BufferedOutputStream(
+        new FileOutputStream(fileName)));
+    writer.writeInt(ids.length);
+    writer.writeInt(blocks);
+    writer.writeInt(maxLength);
+    for (int offset : blockOffsets) {
+      writer.writeInt(offset);
+    }
+    data.writeTo(writer);
+    writer.close();
+  }
+
+  public static TermDictionary load(String fileName) throws IOException {
+    FileInputStream input = new FileInputStream(fileName);
+    try {
+      FileChannel channel = input.getChannel();
+      ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+      while (buffer.hasRemaining()) {
+        if (channel.read(buffer) < 0) {
+          throw new IOException("Truncated term dictionary: " + fileName);
+        }
+      }
+      buffer.flip();
+      int size = buffer.getInt();
+      int[] blockOffsets = new int[buffer.getInt()];
+      int maxLength = buffer.getInt();
+      for (int i = 0; i < blockOffsets.length; i++) {
+        blockOffsets[i] = buffer.getInt();
+      }
+      byte[] data = new byte[buffer.remaining()];
+      buffer.get(data);
+      return new TermDictionary(size, maxLength, blockOffsets, data);
+    } finally {
+      input.close();
+    }
+  }
+
+  public int size() {
+    return _size;
+  }
+
+  /**
+   * Returns the term id of {@code term}, -1 if it is not in the dictionary.
+   */
+  public int termId(String term) {
+    byte[] key = term.getBytes(UTF8);
+    Cursor cursor = seek(key);
+    if (cursor == null || cursor.compareTo(key) != 0) {
+      return -1;
+    }
+    return cursor._termId;
+  }
+
+  /**
+   * Returns the term at {@code ordinal} in sorted order.
+   */
+  public String term(int ordinal) {
+    if (ordinal < 0 || ordinal >= _size) {
+      return null;
+    }
+    Cursor cursor = cursor(ordinal / BLOCK_SIZE);
+    while (cursor._ordinal < ordinal) {
+      cursor.next();
+    }
+    return cursor.term();
+  }
+
+  /**
+   * Returns the term id of the term at {@code ordinal} in sorted order.
+   */
+  public int termIdAt(int ordinal) {
+    if (ordinal < 0 || ordinal >= _size) {
+      return -1;
+    }
+    Cursor cursor = cursor(ordinal / BLOCK_SIZE);
+    while (cursor._ordinal < ordinal) {
+      cursor.next();
+    }
+    return cursor._termId;
+  }
+
+  /**
+   * Returns every term starting with {@code prefix}, in sorted order.
+   */
+  public List<String> termsWithPrefix(String prefix) {
+    byte[] key = prefix.getBytes(UTF8);
+    List<String> terms = new ArrayList<String>();
+    Cursor cursor = seek(key);
+    while (cursor != null && cursor.startsWith(key)) {
+      terms.add(cursor.term());
+      cursor = cursor.next() ? cursor : null;
+    }
+    return terms;
+  }
+
+  // Positions a cursor on the first term not below key, null if there is
+  // none.
+  private Cursor seek(byte[] key) {
+    if (_size == 0) {
+      return null;
+    }
+    // last block whose first term is not above key
+    int low = 0;
+    int high = _blockOffsets.length - 1;
+    while (low < high) {
+      int mid = (low + high + 1) >>> 1;
+      if (compareFirstTerm(mid, key) <= 0) {
+        low = mid;
+      } else {
+        high = mid - 1;
+      }
+    }
+    Cursor cursor = cursor(low);
+    while (cursor.compareTo(key) < 0) {
+      if (!cursor.next()) {
+        return null;
+      }
+    }
+    return cursor;
+  }
+
+  // Compares the first term of a block, stored in full, with key.
+  private int compareFirstTerm(int block, byte[] key) {
+    int i = _blockOffsets[block] + 1; // shared is always 0
+    int length = 0;
+    while (_data[i] >= 0) {
+      length = length * 128 + _data[i++];
+    }
+    length = length * 128 + (_data[i++] + 128);
+    return compareBytes(_data, i, length, key);
+  }
+
+  // The cursor of this thread, moved to the start of a block.
+  private Cursor cursor(int block) {
+    Cursor cursor = _cursors.get();
+    cursor.moveTo(block);
+    return cursor;
+  }
+
+  // Unsigned byte order, which for UTF-8 is code point order.
+  private static int compareBytes(byte[] a, int start, int length, byte[] b) {
+    int limit = Math.min(length, b.length);
+    for (int i = 0; i < limit; i++) {
+      int diff = (a[start + i] & 0xff) - (b[i] & 0xff);
+      if (diff != 0) {
+        return diff;
+      }
+    }
+    return length - b.length;
+  }
+
+  // Walks the terms in sorted order from the start of a block, rebuilding
+  // each term in its buffer. Every thread has a cursor of its own, see
+  // _cursors, so lookups can run concurrently.
+  private class Cursor {
+    private final byte[] _term = new byte[_maxLength];
+    private int _length = 0;
+    private int _termId = -1;
+    private int _ordinal;
+    private int _position;
+
+    void moveTo(int block) {
+      _ordinal = block * BLOCK_SIZE - 1;
+      _position = _blockOffsets[block];
+      next();
+    }
+
+    // Moves to the next term, false when there is none.
+    boolean next() {
+      if (_ordinal + 1 >= _size) {
+        return false;
+      }
+      int shared = readVByte();
+      int suffix = readVByte();
+      System.arraycopy(_data, _position, _term, shared, suffix);
+      _position += suffix;
+      _length = shared + suffix;
+      _termId = readVByte();
+      _ordinal++;
+      return true;
+    }
+
+    int compareTo(byte[] key) {
+      return compareBytes(_term, 0, _length, key);
+    }
+
+    boolean startsWith(byte[] prefix) {
+      return _length >= prefix.length
+          && compareBytes(_term, 0, prefix.length, prefix) == 0;
+    }
+
+    String term() {
+      return new String(_term, 0, _length, UTF8);
+    }
+
+    private int readVByte() {
+      int value = 0;
+      while (_data[_position] >= 0) {
+        value = value * 128 + _data[_position++];
+      }
+      return value * 128 + (_data[_position++] + 128);
+    }
+  }
+}
@@ -0,0 +1,120 @@
+package edu.nyu.cs.cs2580;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Writes the final posting lists of a range of consecutive term ids into
+ * segment files of its own.
+ *
+ * The final merge cuts the term ids into ranges and writes them from several
+ * threads, one writer per range. {@link #concat} then appends the segments in
+ * term id order and writes the offsets file, so the index does not depend on
+ * the number of ranges.
+ *
+ * A layout may store a term in several streams, e.g. postings and positions,
+ * each going to a file of its own. The offsets file holds, for each term id,
+ * one long per stream: where the term starts in that stream's file.
+ */
+abstract class TermListWriter {
+  private final String[] _files;
+  private final String _suffix;
+  protected final DataOutputStream[] _streams;
+  // bytes written to each stream, writeList adds what it writes
+  protected final long[] _sizes;
+
+  // start of each term in each stream, relative to the segment
+  private long[] _offsets = new long[64];
+  private int _terms = 0;
+
+  /**
+   * @param files the final file of each stream
+   * @param suffix appended to the file names to name the segment files
+   */
+  protected TermListWriter(String[] files, String suffix) throws IOException {
+    _files = files;
+    _suffix = suffix;
+    _streams = new DataOutputStream[files.length];
+    _sizes = new long[files.length];
+    for (int i = 0; i < files.length; i++) {
+      _streams[i] = new DataOutputStream(new BufferedOutputStream(
+          new FileOutputStream(files[i] + suffix)));
+    }
+  }
+
+  /**
+   * Called once per term id of the range, in order, with the merged postings
+   * of the term. Returns the number of bytes the stored
+   * list takes.
+   */
+  public int write(TermPostings postings) throws IOException {
+    int streams = _streams.length;
+    if ((_terms + 1) * streams > _offsets.length) {
+      _offsets = Arrays.copyOf(_offsets, _offsets.length * 2);
+    }
+    for (int i = 0; i < streams; i++) {
+      _offsets[_terms * streams + i] = _sizes[i];
+    }
+    _terms++;
+    return writeList(postings);
+  }
+
+  /**
+   * Stores one term, see {@link #write}. Must add the bytes it writes to each
+   * stream to {@link #_sizes}.
+   */
+  protected abstract int writeList(TermPostings postings) throws IOException;
+
+  public void close() throws IOException {
+    for (DataOutputStream stream : _streams) {
+      stream.close();
+    }
+  }
+
+  /**
+   * Appends the closed {@code segments}, in order, into the final files and
+   * writes the offsets of every term to {@code offsetFile}. The segment files
+   * are deleted.
+   */
+  public static void concat(List<TermListWriter> segments, String offsetFile)
+      throws IOException {
+    int streams = segments.get(0)._streams.length;
+    long[] base = new long[streams];
+    DataOutputStream offsets = new DataOutputStream(new BufferedOutputStream(
+        new FileOutputStream(offsetFile)));
+    for (TermListWriter segment : segments) {
+      for (int i = 0; i < segment._terms * streams; i++) {
+        offsets.writeLong(base[i % streams] + segment._offsets[i]);
+      }
+      for (int i = 0; i < streams; i++) {
+        base[i] += segment._sizes[i];
+      }
+    }
+    offsets.close();
+
+    for (int i = 0; i < streams; i++) {
+      FileOutputStream output = new FileOutputStream(segments.get(0)._files[i]);
+      FileChannel target = output.getChannel();
+      for (TermListWriter segment : segments) {
+        File file = new File(segment._files[i] + segment._suffix);
+        FileInputStream input = new FileInputStream(file);
+        FileChannel source = input.getChannel();
+        long position = 0;
+        long size = source.size();
+        while (position < size) {
+          position += source.transferTo(position, size - position, target);
+        }
+        input.close();
+        file.delete();
+      }
+      output.close();
+    }
+  }
+}
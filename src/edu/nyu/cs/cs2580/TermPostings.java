@@ -0,0 +1,195 @@
+package edu.nyu.cs.cs2580;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * The merged positional postings of one term, decoded once for everything
+ * the final merge derives from them: the lexicon counts, the term and block
+ * bounds, the skip table or split layout, and the hot tier list. Each of
+ * those reads the arrays here instead of walking the vByte pairs again.
+ *
+ * Blocks are cut here and nowhere else, as {@link SkipListPostingIterator}
+ * lays them out: a block closes at the first document boundary after
+ * {@link SkipListPostingIterator#BLOCK_SIZE} postings, so the pairs of one
+ * document never straddle two blocks.
+ *
+ * One instance per merge thread, reused from term to term. What it returns
+ * is valid until the next {@link #decode}.
+ */
+class TermPostings {
+  private byte[] _bytes = new byte[0];
+  // the (docid, offset) pairs
+  private int[] _pairs = new int[32];
+  private int _pairCount = 0;
+  // per document: its docid, its frequency and the end of its pairs in _bytes
+  private int[] _docids = new int[16];
+  private int[] _frequencies = new int[16];
+  private int[] _byteEnds = new int[16];
+  private int _documents = 0;
+  // per block, one past its last document
+  private int[] _blockEnds = new int[4];
+  private int _blocks = 0;
+
+  /**
+   * Decodes the vByte encoded (docid, offset) pairs of one term, grouped by
+   * ascending docid.
+   */
+  public void decode(byte[] postings) {
+    _bytes = postings;
+    _pairCount = 0;
+    _documents = 0;
+    int value = 0;
+    boolean isDocid = true;
+    for (int i = 0; i < postings.length; i++) {
+      byte b = postings[i];
+      if (b >= 0) {
+        value = value * 128 + b;
+        continue;
+      }
+      value = value * 128 + (b + 128);
+      if (_pairCount == _pairs.length) {
+        _pairs = Arrays.copyOf(_pairs, _pairCount * 2);
+      }
+      _pairs[_pairCount++] = value;
+      if (isDocid) {
+        if (_documents == 0 || _docids[_documents - 1] != value) {
+          addDocument(value);
+        }
+        _frequencies[_documents - 1]++;
+      } else {
+        _byteEnds[_documents - 1] = i + 1;
+      }
+      isDocid = !isDocid;
+      value = 0;
+    }
+    cutBlocks();
+  }
+
+  /**
+   * Keeps in into only the documents of this term that are set in documents,
+   * without decoding anything again.
+   */
+  public void keep(BitSet documents, TermPostings into) {
+    into._pairCount = 0;
+    into._documents = 0;
+    byte[] bytes = new byte[_bytes.length];
+    int length = 0;
+    int pair = 0;
+    for (int i = 0; i < _documents; i++) {
+      int pairs = _frequencies[i] * 2;
+      if (documents.get(_docids[i])) {
+        int start = byteStart(i);
+        System.arraycopy(_bytes, start, bytes, length, _byteEnds[i] - start);
+        length += _byteEnds[i] - start;
+        into.addDocument(_docids[i]);
+        into._frequencies[into._documents - 1] = _frequencies[i];
+        into._byteEnds[into._documents - 1] = length;
+        if (into._pairCount + pairs > into._pairs.length) {
+          into._pairs = Arrays.copyOf(into._pairs, Math.max(
+              into._pairs.length * 2, into._pairCount + pairs));
+        }
+        System.arraycopy(_pairs, pair, into._pairs, into._pairCount, pairs);
+        into._pairCount += pairs;
+      }
+      pair += pairs;
+    }
+    into._bytes = Arrays.copyOf(bytes, length);
+    into.cutBlocks();
+  }
+
+  /**
+   * Re-encodes the term with every docid d replaced by newDocids[d], the
+   * pairs sorted again, and decodes the result.
+   */
+  public void renumber(int[] newDocids) {
+    long[] pairs = new long[_pairCount / 2];
+    for (int i = 0; i < pairs.length; i++) {
+      pairs[i] = ((long) newDocids[_pairs[2 * i]] << 32) | _pairs[2 * i + 1];
+    }
+    Arrays.sort(pairs);
+    byte[] renumbered = new byte[_bytes.length];
+    int length = 0;
+    for (long pair : pairs) {
+      for (int value : new int[] { (int) (pair >>> 32), (int) pair }) {
+        byte[] bytes = IndexerInvertedCompressed.vByte(value);
+        if (length + bytes.length > renumbered.length) {
+          renumbered = Arrays.copyOf(renumbered, renumbered.length * 2
+              + bytes.length);
+        }
+        System.arraycopy(bytes, 0, renumbered, length, bytes.length);
+        length += bytes.length;
+      }
+    }
+    decode(Arrays.copyOf(renumbered, length));
+  }
+
+  private void addDocument(int docid) {
+    if (_documents == _docids.length) {
+      _docids = Arrays.copyOf(_docids, _documents * 2);
+      _frequencies = Arrays.copyOf(_frequencies, _documents * 2);
+      _byteEnds = Arrays.copyOf(_byteEnds, _documents * 2);
+    }
+    _docids[_documents] = docid;
+    _frequencies[_documents] = 0;
+    _documents++;
+  }
+
+  private void cutBlocks() {
+    _blocks = 0;
+    int count = 0;
+    for (int i = 0; i < _documents; i++) {
+      count += _frequencies[i];
+      if (count >= SkipListPostingIterator.BLOCK_SIZE || i == _documents - 1) {
+        if (_blocks == _blockEnds.length) {
+          _blockEnds = Arrays.copyOf(_blockEnds, _blocks * 2);
+        }
+        _blockEnds[_blocks++] = i + 1;
+        count = 0;
+      }
+    }
+  }
+
+  // The vByte pairs decoded.
+  public byte[] bytes() {
+    return _bytes;
+  }
+
+  public PostingList pairs() {
+    return new PostingList(_pairs, _pairCount);
+  }
+
+  public int documents() {
+    return _documents;
+  }
+
+  public int occurrences() {
+    return _pairCount / 2;
+  }
+
+  public int docid(int document) {
+    return _docids[document];
+  }
+
+  public int frequency(int document) {
+    return _frequencies[document];
+  }
+
+  // Where the pairs of a document start and end in bytes().
+  public int byteStart(int document) {
+    return document == 0 ? 0 : _byteEnds[document - 1];
+  }
+
+  public int byteEnd(int document) {
+    return _byteEnds[document];
+  }
+
+  public int blocks() {
+    return _blocks;
+  }
+
+  // One past the last document of a block.
+  public int blockEnd(int block) {
+    return _blockEnds[block];
+  }
+}
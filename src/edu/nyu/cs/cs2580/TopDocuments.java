@@ -0,0 +1,96 @@
+package edu.nyu.cs.cs2580;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+import java.util.Vector;
+
+/**
+ * The best scored documents of one query, kept in a heap capped at the
+ * number of results up to the requested page.
+ *
+ * Documents with equal scores are ranked by docid, lower first, so which
+ * documents are kept does not depend on the order they were added in. That
+ * lets a ranker skip any document whose score ceiling fails
+ * {@link #admits(int, double)} and still return exactly what scoring every
+ * document returns.
+ */
+class TopDocuments {
+  // the worst document first: lowest score, then highest docid
+  private static final Comparator<ScoredDocument> WORST_FIRST =
+      new Comparator<ScoredDocument>() {
+        @Override
+        public int compare(ScoredDocument a, ScoredDocument b) {
+          if (a.getScore() != b.getScore()) {
+            return a.getScore() < b.getScore() ? -1 : 1;
+          }
+          if (a.getDocid() == b.getDocid()) {
+            return 0;
+          }
+          return a.getDocid() > b.getDocid() ? -1 : 1;
+        }
+      };
+
+  private final int _numResults;
+  private final int _page;
+  private final int _capacity;
+  private final PriorityQueue<ScoredDocument> _heap;
+
+  public TopDocuments(int numResults, int page) {
+    _numResults = numResults;
+    _page = page;
+    _capacity = numResults * page;
+    _heap = new PriorityQueue<ScoredDocument>(Math.max(_capacity + 1, 1),
+        WORST_FIRST);
+  }
+
+  public void add(ScoredDocument doc) {
+    _heap.add(doc);
+    if (_heap.size() > _capacity) {
+      _heap.poll();
+    }
+  }
+
+  // True once another document can only get in by pushing one out.
+  public boolean isFull() {
+    return _heap.size() >= _capacity;
+  }
+
+  /**
+   * Whether a document scoring at most {@code bound} could still be added,
+   * false means its score can be skipped.
+   */
+  public boolean admits(int docid, double bound) {
+    if (!isFull()) {
+      return true;
+    }
+    ScoredDocument worst = _heap.peek();
+    if (worst == null) {
+      return false;
+    }
+    return bound > worst.getScore()
+        || (bound == worst.getScore() && docid < worst.getDocid());
+  }
+
+  /**
+   * A nonnegative ceiling pushed up past any rounding, for a bound that is
+   * not computed with the same operations in the same order as the score it
+   * bounds: the two can differ in their last few bits either way. A higher
+   * ceiling only means fewer documents are skipped.
+   */
+  static double roundUp(double ceiling) {
+    return Math.nextUp(ceiling * (1 + 1e-9));
+  }
+
+  // The documents of the requested page, best first.
+  public Vector<ScoredDocument> results() {
+    Vector<ScoredDocument> results = new Vector<ScoredDocument>();
+    ScoredDocument scoredDoc = null;
+    int resultSize = _heap.size() - (_numResults * (_page - 1));
+    while (results.size() < resultSize && (scoredDoc = _heap.poll()) != null) {
+      results.add(scoredDoc);
+    }
+    Collections.reverse(results);
+    return results;
+  }
+}